@@ -1,18 +1,17 @@
 package org.opencds.cqf.tooling.common.r4;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.JsonParser;
-import ca.uhn.fhir.parser.XmlParser;
 import org.apache.commons.io.FilenameUtils;
 import org.hl7.fhir.r4.model.*;
 import org.opencds.cqf.tooling.Main;
 import org.opencds.cqf.tooling.common.BaseCqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ParserProvider;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -66,17 +65,13 @@ public class CqfmSoftwareSystemHelper extends BaseCqfmSoftwareSystemHelper {
             IOUtils.Encoding deviceOutputEncoding = IOUtils.Encoding.JSON;
             for (String path : IOUtils.getDevicePaths(fhirContext)) {
                 DomainResource resourceInPath;
-                try {
-                    if (path.endsWith("xml")) {
-                        deviceOutputEncoding = IOUtils.Encoding.XML;
-                        XmlParser xmlParser = (XmlParser)fhirContext.newXmlParser();
-                        resourceInPath = (DomainResource) xmlParser.parseResource(new FileReader(new File(path)));
-                    }
-                    else {
-                        JsonParser jsonParser = (JsonParser)fhirContext.newJsonParser();
-                        resourceInPath = (DomainResource) jsonParser.parseResource(new FileReader(new File(path)));
-                    }
-                } catch (FileNotFoundException e) {
+                IOUtils.Encoding encoding = path.endsWith("xml") ? IOUtils.Encoding.XML : IOUtils.Encoding.JSON;
+                if (encoding == IOUtils.Encoding.XML) {
+                    deviceOutputEncoding = IOUtils.Encoding.XML;
+                }
+                try (FileReader reader = new FileReader(new File(path))) {
+                    resourceInPath = (DomainResource) ParserProvider.getParser(encoding, fhirContext).parseResource(reader);
+                } catch (IOException e) {
                     e.printStackTrace();
                     throw new RuntimeException("Error parsing " + e.getLocalizedMessage());
                 }
@@ -9,12 +9,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.cqframework.cql.cql2elm.CqlTranslator;
-import org.cqframework.cql.cql2elm.CqlTranslatorException;
-import org.cqframework.cql.cql2elm.DefaultLibrarySourceProvider;
-import org.cqframework.cql.cql2elm.LibraryManager;
-import org.cqframework.cql.cql2elm.LibrarySourceProvider;
-import org.cqframework.cql.cql2elm.ModelManager;
-import org.cqframework.cql.elm.tracking.TrackBack;
 import org.hl7.elm.r1.ValueSetDef;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.Operation;
@@ -33,9 +27,6 @@ public abstract class BaseLibraryGenerator<L extends IBaseResource, T extends Ba
 
     private String pathToCQLContent;
     private String pathToCqlContentDir;
-    private ModelManager modelManager;
-    private LibraryManager libraryManager;
-    private LibrarySourceProvider sourceProvider;
 
     private String pathToLibrary;
     private Map<String, CqlTranslator> translatorMap = new HashMap<>();
@@ -51,12 +42,6 @@ public abstract class BaseLibraryGenerator<L extends IBaseResource, T extends Ba
     public void execute(String[] args) {
         buildArgs(args);
         setRelevantCqlFiles();
-        
-        modelManager = new ModelManager();
-        sourceProvider = new DefaultLibrarySourceProvider(new File(pathToCQLContent).getParentFile().toPath());
-        //sourceProvider = new GenericLibrarySourceProvider(pathToCqlContentDir);
-        libraryManager = new LibraryManager(modelManager);
-        libraryManager.getLibrarySourceLoader().registerProvider(sourceProvider);
 
         translateCqlFiles();
 
@@ -67,6 +52,9 @@ public abstract class BaseLibraryGenerator<L extends IBaseResource, T extends Ba
         }
 
         output();
+
+        // The registry keeps the ELM; the translators are only needed while the libraries are processed
+        translatorMap.clear();
     }
 
     protected String getValueSetId(String valueSetName) {
@@ -185,34 +173,11 @@ public abstract class BaseLibraryGenerator<L extends IBaseResource, T extends Ba
 
     private CqlTranslator translate(File cqlFile) {
         try {
-            ArrayList<CqlTranslator.Options> options = new ArrayList<>();
-            options.add(CqlTranslator.Options.EnableDateRangeOptimization);
-
-            CqlTranslator translator =
-                CqlTranslator.fromFile(
-                    cqlFile,
-                    modelManager,
-                    libraryManager,
-                    options.toArray(new CqlTranslator.Options[0])
-                );
-
-            if (translator.getErrors().size() > 0) {
-                System.err.println("Translation failed due to errors:");
-                ArrayList<String> errors = new ArrayList<>();
-                for (CqlTranslatorException error : translator.getErrors()) {
-                    TrackBack tb = error.getLocator();
-                    String lines = tb == null ? "[n/a]" : String.format("[%d:%d, %d:%d]",
-                            tb.getStartLine(), tb.getStartChar(), tb.getEndLine(), tb.getEndChar());
-                    System.err.printf("%s %s%n", lines, error.getMessage());
-                    errors.add(lines + error.getMessage());
-                }
-                throw new IllegalArgumentException(errors.toString());
-            }
-
-            return translator;
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new IllegalArgumentException("Error encountered during CQL translation: " + e.getMessage());
+            return CompiledLibraryRegistry.translate(cqlFile.getAbsolutePath());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Translation failed due to errors:");
+            System.err.println(e.getMessage());
+            throw e;
         }
     }
 
@@ -0,0 +1,166 @@
+package org.opencds.cqf.tooling.library;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+
+/**
+ * The CQL libraries compiled by the process, shared by the tooling that needs the ELM of a CQL file.
+ *
+ * Translations share the ModelManagers of {@link ModelManagerCache}. The ELM of a translated library, and of the
+ * libraries it includes, is registered by directory, library name and version, so a library is translated once
+ * whether it is requested directly or was included by another file of its directory. Includes are resolved from the
+ * directory of the including file, so libraries of the same name and version in different directories are kept apart.
+ * Only the ELM of a compiled library is kept: each translation uses its own LibraryManager, which is dropped with
+ * the translator state once the ELM has been registered. Callers that need the full translator state get it from
+ * {@link #translate(String)} and should not hold on to it.
+ * The files of a directory are translated one at a time; files of different directories are translated concurrently.
+ */
+public class CompiledLibraryRegistry {
+
+    // ModelManagers by the directory of the CQL files they translate
+    private static final Map<String, ModelManager> modelManagers = new ConcurrentHashMap<String, ModelManager>();
+    // Locks by the directory of the CQL files translated under them
+    private static final Map<String, Object> directoryLocks = new ConcurrentHashMap<String, Object>();
+    // ELM by directory, library name and version, and the key of the library in each compiled CQL file by path
+    private static final Map<String, Library> libraries = new ConcurrentHashMap<String, Library>();
+    private static final Map<String, String> keysByPath = new ConcurrentHashMap<String, String>();
+
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong translations = new AtomicLong();
+
+    private CompiledLibraryRegistry() {
+    }
+
+    private static ModelManager getModelManager(String cqlDirPath) {
+        return modelManagers.computeIfAbsent(cqlDirPath, path -> ModelManagerCache.getModelManager(new File(path)));
+    }
+
+    private static Object getDirectoryLock(String cqlDirPath) {
+        return directoryLocks.computeIfAbsent(cqlDirPath, path -> new Object());
+    }
+
+    /**
+     * Translates a CQL file and registers its ELM, and that of the libraries it includes.
+     *
+     * @throws IllegalArgumentException if the translation reports errors
+     */
+    public static CqlTranslator translate(String cqlContentPath) {
+        String cqlDirPath = IOUtils.getParentDirectoryPath(cqlContentPath);
+        synchronized (getDirectoryLock(cqlDirPath)) {
+            ModelManager modelManager = getModelManager(cqlDirPath);
+            LibraryManager libraryManager = new LibraryManager(modelManager);
+            libraryManager.getLibrarySourceLoader().registerProvider(new GenericLibrarySourceProvider(cqlDirPath));
+            CqlTranslator translator = IOUtils.translate(cqlContentPath, modelManager, libraryManager);
+            translations.incrementAndGet();
+
+            Library elm = translator.toELM();
+            String key = elm.getIdentifier() != null && elm.getIdentifier().getId() != null
+                ? getKey(cqlDirPath, elm.getIdentifier())
+                // A file without a library declaration can only be found by its path
+                : cqlContentPath;
+            for (TranslatedLibrary included : libraryManager.getTranslatedLibraries().values()) {
+                if (included.getIdentifier() != null && included.getIdentifier().getId() != null) {
+                    libraries.put(getKey(cqlDirPath, included.getIdentifier()), included.getLibrary());
+                }
+            }
+            libraries.put(key, elm);
+            keysByPath.put(cqlContentPath, key);
+            return translator;
+        }
+    }
+
+    /**
+     * @return The ELM of a CQL file, translating it only if it has not been compiled before
+     * @throws IllegalArgumentException if the translation reports errors
+     */
+    public static Library getElm(String cqlContentPath) {
+        requests.incrementAndGet();
+        Library elm = getRegisteredElm(cqlContentPath);
+        if (elm == null) {
+            String cqlDirPath = IOUtils.getParentDirectoryPath(cqlContentPath);
+            synchronized (getDirectoryLock(cqlDirPath)) {
+                elm = getRegisteredElm(cqlContentPath);
+                if (elm == null) {
+                    elm = getIncludedElm(cqlDirPath, cqlContentPath);
+                }
+                if (elm == null) {
+                    return translate(cqlContentPath).toELM();
+                }
+            }
+        }
+
+        hits.incrementAndGet();
+        return elm;
+    }
+
+    private static Library getRegisteredElm(String cqlContentPath) {
+        String key = keysByPath.get(cqlContentPath);
+        return key != null ? libraries.get(key) : null;
+    }
+
+    // The ELM of a file that has already been compiled as an include of another file of its directory
+    private static Library getIncludedElm(String cqlDirPath, String cqlContentPath) {
+        CqlSourceHeader header = CqlSourceHeader.read(new File(cqlContentPath));
+        if (header.getName() == null) {
+            return null;
+        }
+
+        // An unversioned file was included as the unversioned library of that name
+        String key = getKey(cqlDirPath, header.getName(), header.getVersion());
+        Library elm = libraries.get(key);
+        if (elm != null) {
+            keysByPath.put(cqlContentPath, key);
+        }
+        return elm;
+    }
+
+    private static String getKey(String cqlDirPath, VersionedIdentifier identifier) {
+        return getKey(cqlDirPath, identifier.getId(), identifier.getVersion());
+    }
+
+    // Libraries are compared by name and version only, since the header of a file does not give a namespace
+    private static String getKey(String cqlDirPath, String name, String version) {
+        return cqlDirPath + "|" + name + "|" + version;
+    }
+
+    /**
+     * Discards the compiled libraries, so that the next requests reflect the current content of the CQL files.
+     * Loaded models are kept.
+     */
+    public static void clear() {
+        modelManagers.clear();
+        libraries.clear();
+        keysByPath.clear();
+    }
+
+    public static int size() {
+        return libraries.size();
+    }
+
+    public static long getRequestCount() {
+        return requests.get();
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getTranslationCount() {
+        return translations.get();
+    }
+
+    public static String getStatistics() {
+        return String.format("%d libraries, %d requests, %d hits, %d translations", libraries.size(), requests.get(), hits.get(), translations.get());
+    }
+}
@@ -0,0 +1,110 @@
+package org.opencds.cqf.tooling.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hl7.elm.r1.VersionedIdentifier;
+
+/**
+ * The library, using and include declarations of a CQL source, read without translating it.
+ *
+ * Declarations are matched at the start of a line, so one inside a block comment is still reported. Callers
+ * use the header to find and order sources; the translator remains the authority on what a library includes.
+ */
+public class CqlSourceHeader {
+
+    // e.g. library "Common Logic" version '1.0.0', include FHIRHelpers version '4.0.1' called FHIRHelpers
+    private static final String IDENTIFIER = "((?:\"[^\"]+\"|[A-Za-z_][\\w]*)(?:\\.(?:\"[^\"]+\"|[A-Za-z_][\\w]*))*)";
+    private static final String VERSION = "(?:\\s+version\\s+'([^']*)')?";
+    private static final Pattern LIBRARY = Pattern.compile("^\\s*library\\s+" + IDENTIFIER + VERSION, Pattern.MULTILINE);
+    private static final Pattern USING = Pattern.compile("^\\s*using\\s+" + IDENTIFIER + VERSION, Pattern.MULTILINE);
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*include\\s+" + IDENTIFIER + VERSION, Pattern.MULTILINE);
+
+    private final File file;
+    private final String name;
+    private final String version;
+    private final List<VersionedIdentifier> usings;
+    private final List<VersionedIdentifier> includes;
+
+    private CqlSourceHeader(File file, String name, String version, List<VersionedIdentifier> usings, List<VersionedIdentifier> includes) {
+        this.file = file;
+        this.name = name;
+        this.version = version;
+        this.usings = usings;
+        this.includes = includes;
+    }
+
+    public static CqlSourceHeader read(File file) {
+        try {
+            return parse(file, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Error reading " + file.getName(), e);
+        }
+    }
+
+    public static CqlSourceHeader parse(File file, String cql) {
+        String name = null;
+        String version = null;
+        Matcher library = LIBRARY.matcher(cql);
+        if (library.find()) {
+            name = getName(library.group(1));
+            version = library.group(2);
+        }
+
+        List<VersionedIdentifier> usings = new ArrayList<>();
+        Matcher using = USING.matcher(cql);
+        while (using.find()) {
+            usings.add(new VersionedIdentifier().withId(getName(using.group(1))).withVersion(using.group(2)));
+        }
+
+        List<VersionedIdentifier> includes = new ArrayList<>();
+        Matcher include = INCLUDE.matcher(cql);
+        while (include.find()) {
+            includes.add(new VersionedIdentifier().withId(getName(include.group(1))).withVersion(include.group(2)));
+        }
+
+        return new CqlSourceHeader(file, name, version, usings, includes);
+    }
+
+    // The library name is the last part of a qualified identifier; the leading parts name its namespace
+    private static String getName(String qualifiedIdentifier) {
+        String name = qualifiedIdentifier.substring(qualifiedIdentifier.lastIndexOf('.') + 1);
+        if (qualifiedIdentifier.endsWith("\"")) {
+            name = qualifiedIdentifier.substring(qualifiedIdentifier.lastIndexOf('"', qualifiedIdentifier.length() - 2));
+        }
+        return name.replace("\"", "");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The library name, or null if the source has no library declaration
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The models the source uses, e.g. FHIR version 4.0.1
+     */
+    public List<VersionedIdentifier> getUsings() {
+        return usings;
+    }
+
+    public List<VersionedIdentifier> getIncludes() {
+        return includes;
+    }
+}
@@ -1,18 +1,40 @@
 package org.opencds.cqf.tooling.library;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Scanner;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.cqframework.cql.cql2elm.LibrarySourceProvider;
 import org.hl7.elm.r1.VersionedIdentifier;
 
+/**
+ * Resolves library source from the CQL files of a directory, by the library declaration of each file rather than
+ * its file name.
+ *
+ * The directory is read once, on the first request; each request gets a new stream over the source read then.
+ */
 public class GenericLibrarySourceProvider implements LibrarySourceProvider {
 
+    private static class Source {
+        private final String version;
+        private final byte[] cql;
+
+        private Source(String version, byte[] cql) {
+            this.version = version;
+            this.cql = cql;
+        }
+    }
+
     private String pathToSource;
-    private LibraryHashMap libraries = new LibraryHashMap();
+    // Sources by library name
+    private Map<String, List<Source>> libraries;
 
     public GenericLibrarySourceProvider(String pathToSource) {
         this.pathToSource = pathToSource;
@@ -20,44 +42,39 @@ public class GenericLibrarySourceProvider implements LibrarySourceProvider {
 
     @Override
     public InputStream getLibrarySource(VersionedIdentifier versionedIdentifier) {
-        if (libraries.containsKey(versionedIdentifier)) {
-            return libraries.get(versionedIdentifier);
-        }
-
-        File sourceDir = new File(pathToSource);
-        for (File file : sourceDir.listFiles()) {
-            if (!file.getName().endsWith(".cql")) continue;
-            try (Scanner scanner = new Scanner(new FileInputStream(file))) {
-                String cql = scanner.useDelimiter("\\A").next();
-                VersionedIdentifier vi = new VersionedIdentifier();
-                vi.setId(getIdFromSource(cql));
-                vi.setVersion(getVersionFromSource(cql));
-                this.libraries.put(vi, new FileInputStream(file));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                throw new IllegalArgumentException("Error reading " + file.getName());
+        List<Source> sources = getLibraries().get(versionedIdentifier.getId());
+        if (sources != null) {
+            for (Source source : sources) {
+                if (versionedIdentifier.getVersion() == null || versionedIdentifier.getVersion().equals(source.version)) {
+                    return new ByteArrayInputStream(source.cql);
+                }
             }
         }
 
-        if (libraries.containsKey(versionedIdentifier)) {
-            return libraries.get(versionedIdentifier);
-        }
-
         throw new IllegalArgumentException("Unable to resolve source for library: " + versionedIdentifier.getId());
     }
 
-    private String getIdFromSource(String cql) {
-        if (cql.startsWith("library")) {
-            return getNameFromSource(cql);
+    private synchronized Map<String, List<Source>> getLibraries() {
+        if (libraries == null) {
+            libraries = new HashMap<>();
+            File[] files = new File(pathToSource).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.getName().endsWith(".cql")) continue;
+                    try {
+                        byte[] cql = Files.readAllBytes(file.toPath());
+                        CqlSourceHeader header = CqlSourceHeader.parse(file, new String(cql, StandardCharsets.UTF_8));
+                        if (header.getName() != null) {
+                            libraries.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(new Source(header.getVersion(), cql));
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        throw new IllegalArgumentException("Error reading " + file.getName());
+                    }
+                }
+            }
         }
 
-        throw new RuntimeException("This tool requires cql libraries to include a named/versioned identifier");
-    }
-
-    private String getNameFromSource(String cql) {
-        return cql.replaceFirst("library ", "").split(" version")[0].replaceAll("\"", "");
-    }
-    private String getVersionFromSource(String cql) {
-        return cql.split("version")[1].split("'")[1];
+        return libraries;
     }
 }
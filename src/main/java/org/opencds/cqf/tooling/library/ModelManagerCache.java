@@ -0,0 +1,98 @@
+package org.opencds.cqf.tooling.library;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+/**
+ * Process-wide ModelManagers, so that model info is loaded once per process rather than once per translation or
+ * folder.
+ *
+ * A ModelManager can only hold one version of a model, so there is one per version of the FHIR model used by the
+ * content; other models (e.g. QICore) are loaded into it on first use. The managers are thread-safe and are never
+ * discarded, since model info does not change while the process runs.
+ */
+public class ModelManagerCache {
+
+    public static final String FHIR_MODEL = "FHIR";
+
+    // ModelManagers by FHIR model version
+    private final static Map<String, ModelManager> modelManagers = new HashMap<>();
+
+    /**
+     * @param fhirModelVersion The version of the FHIR model the content uses (e.g. "4.0.1"), or null if unknown
+     * @return A shared ModelManager with the FHIR model of that version loaded, or a new ModelManager if the version
+     * is unknown, since the content may include libraries that load any version
+     */
+    public static synchronized ModelManager getModelManager(String fhirModelVersion) {
+        if (fhirModelVersion == null) {
+            return new ThreadSafeModelManager();
+        }
+
+        ModelManager modelManager = modelManagers.get(fhirModelVersion);
+        if (modelManager == null) {
+            modelManager = new ThreadSafeModelManager();
+            modelManager.resolveModel(FHIR_MODEL, fhirModelVersion);
+            modelManagers.put(fhirModelVersion, modelManager);
+        }
+
+        return modelManager;
+    }
+
+    /**
+     * Fetches the ModelManager for the FHIR model version translated content of the given FHIR version
+     * usually declares, loading its model info if this is the first request.
+     */
+    public static ModelManager getModelManager(FhirVersionEnum fhirVersion) {
+        Objects.requireNonNull(fhirVersion, "fhirVersion can not be null");
+        return getModelManager(getFhirModelVersion(fhirVersion));
+    }
+
+    /**
+     * @return The ModelManager for the FHIR model version declared by the CQL files of the directory
+     */
+    public static ModelManager getModelManager(File directory) {
+        List<CqlSourceHeader> headers = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".cql"));
+        if (files != null) {
+            for (File file : files) {
+                headers.add(CqlSourceHeader.read(file));
+            }
+        }
+        return getModelManager(headers);
+    }
+
+    /**
+     * @return The ModelManager for the first FHIR model version declared by the sources
+     */
+    public static ModelManager getModelManager(Collection<CqlSourceHeader> headers) {
+        for (CqlSourceHeader header : headers) {
+            for (VersionedIdentifier using : header.getUsings()) {
+                if (FHIR_MODEL.equals(using.getId()) && using.getVersion() != null) {
+                    return getModelManager(using.getVersion());
+                }
+            }
+        }
+        return getModelManager((String)null);
+    }
+
+    public static String getFhirModelVersion(FhirVersionEnum fhirVersion) {
+        switch (fhirVersion) {
+            case DSTU3:
+                return "3.0.0";
+            case R4:
+                return "4.0.1";
+            default:
+                throw new IllegalArgumentException("Unknown IG version: " + fhirVersion);
+        }
+    }
+}
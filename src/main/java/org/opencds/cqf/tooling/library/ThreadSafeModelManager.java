@@ -0,0 +1,29 @@
+package org.opencds.cqf.tooling.library;
+
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+/**
+ * A ModelManager that can be shared by translations running on several threads.
+ *
+ * ModelManager loads models into an unsynchronized map on first use. Loaded models are only read by the
+ * translator, so serializing model resolution is enough to share one instance.
+ */
+public class ThreadSafeModelManager extends ModelManager {
+
+    @Override
+    public synchronized Model resolveModel(String modelName) {
+        return super.resolveModel(modelName);
+    }
+
+    @Override
+    public synchronized Model resolveModel(String modelName, String version) {
+        return super.resolveModel(modelName, version);
+    }
+
+    @Override
+    public synchronized Model resolveModel(VersionedIdentifier modelIdentifier) {
+        return super.resolveModel(modelIdentifier);
+    }
+}
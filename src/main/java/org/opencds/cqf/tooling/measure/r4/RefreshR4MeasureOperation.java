@@ -1,35 +1,28 @@
 package org.opencds.cqf.tooling.measure.r4;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.JsonParser;
-import ca.uhn.fhir.parser.XmlParser;
 import org.hl7.fhir.r4.model.Measure;
 import org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.operation.RefreshGeneratedContentOperation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ParserProvider;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
 public class RefreshR4MeasureOperation extends RefreshGeneratedContentOperation {
 
-    private JsonParser jsonParser;
-    private XmlParser xmlParser;
     private CqfmSoftwareSystemHelper cqfmHelper = new CqfmSoftwareSystemHelper();
 
     public RefreshR4MeasureOperation() {
         super("src/main/resources/org/opencds/cqf/tooling/measure/output/r4", "-RefreshR4Measure", FhirContext.forR4());
-        jsonParser = (JsonParser)this.getFhirContext().newJsonParser();
-        xmlParser = (XmlParser)this.getFhirContext().newXmlParser();
     }
 
     public RefreshR4MeasureOperation(String pathToMeasures) {
         super(pathToMeasures, "-RefreshR4Measure", FhirContext.forR4(), null, pathToMeasures);
-        jsonParser = (JsonParser)this.getFhirContext().newJsonParser();
-        xmlParser = (XmlParser)this.getFhirContext().newXmlParser();
     }
 
     @Override
@@ -50,16 +43,10 @@ public class RefreshR4MeasureOperation extends RefreshGeneratedContentOperation
         IOUtils.Encoding encoding = null;
 
         if (f.isFile()) {
-            try {
-                if (f.getName().endsWith("xml")) {
-                    measure = (Measure)xmlParser.parseResource(new FileInputStream(f));
-                    encoding = IOUtils.Encoding.XML;
-                }
-                else {
-                    measure = (Measure)jsonParser.parseResource(new FileInputStream(f));
-                    encoding = IOUtils.Encoding.JSON;
-                }
-            } catch (FileNotFoundException e) {
+            encoding = f.getName().endsWith("xml") ? IOUtils.Encoding.XML : IOUtils.Encoding.JSON;
+            try (FileInputStream stream = new FileInputStream(f)) {
+                measure = (Measure)ParserProvider.getParser(encoding, this.getFhirContext()).parseResource(stream);
+            } catch (IOException e) {
                 e.printStackTrace();
                 throw new RuntimeException("Error parsing " + f.getName());
             }
@@ -1,36 +1,29 @@
 package org.opencds.cqf.tooling.measure.stu3;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.JsonParser;
-import ca.uhn.fhir.parser.XmlParser;
 import org.hl7.fhir.dstu3.model.Measure;
 import org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.operation.RefreshGeneratedContentOperation;
 import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ParserProvider;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
 public class RefreshStu3MeasureOperation extends RefreshGeneratedContentOperation {
 
-    private JsonParser jsonParser;
-    private XmlParser xmlParser;
     private CqfmSoftwareSystemHelper cqfmHelper = new CqfmSoftwareSystemHelper();
 
     //NOTE: Only consumed from OperationFactory - that call should come through a proper Operation that calls a processor.
     public RefreshStu3MeasureOperation() {
         super("src/main/resources/org/opencds/cqf/tooling/measure/output/stu3", "-RefreshStu3Measure", FhirContext.forDstu3());
-        jsonParser = (JsonParser)this.getFhirContext().newJsonParser();
-        xmlParser = (XmlParser)this.getFhirContext().newXmlParser();
     }
 
     public RefreshStu3MeasureOperation(String pathToMeasures) {
         super(pathToMeasures, "-RefreshStu3Measure", FhirContext.forDstu3(), null, pathToMeasures);
-        jsonParser = (JsonParser)this.getFhirContext().newJsonParser();
-        xmlParser = (XmlParser)this.getFhirContext().newXmlParser();
     }
 
     @Override
@@ -51,16 +44,10 @@ public class RefreshStu3MeasureOperation extends RefreshGeneratedContentOperatio
         IOUtils.Encoding encoding = null;
 
         if (f.isFile()) {
-            try {
-                if (f.getName().endsWith("xml")) {
-                    measure = (Measure)xmlParser.parseResource(new FileInputStream(f));
-                    encoding = IOUtils.Encoding.XML;
-                }
-                else {
-                    measure = (Measure)jsonParser.parseResource(new FileInputStream(f));
-                    encoding = IOUtils.Encoding.JSON;
-                }
-            } catch (FileNotFoundException e) {
+            encoding = f.getName().endsWith("xml") ? IOUtils.Encoding.XML : IOUtils.Encoding.JSON;
+            try (FileInputStream stream = new FileInputStream(f)) {
+                measure = (Measure)ParserProvider.getParser(encoding, this.getFhirContext()).parseResource(stream);
+            } catch (IOException e) {
                 e.printStackTrace();
                 throw new RuntimeException("Error parsing " + f.getName());
             }
@@ -3,43 +3,124 @@ package org.opencds.cqf.tooling.npm;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.io.input.BOMInputStream;
 import org.cqframework.cql.cql2elm.LibrarySourceProvider;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.fhir.r5.context.IWorkerContext;
 import org.hl7.fhir.r5.model.Library;
 import org.hl7.fhir.utilities.cache.NpmPackage;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 /**
  * Provides a library source provider that can resolve CQL library source from an Npm package
+ *
+ * The Library resources of the packages are indexed by canonical url when the provider is created, and the CQL
+ * of a library is decoded the first time it is requested, so each library is read at most once. A provider can
+ * be shared by LibraryManagers translating on several threads.
  */
 public class NpmLibrarySourceProvider implements LibrarySourceProvider {
 
+    // The result of a lookup that found no CQL source
+    private static final byte[] NO_SOURCE = new byte[0];
+
+    private static class IndexedLibrary {
+        private final String filename;
+        private final String version;
+
+        private IndexedLibrary(String filename, String version) {
+            this.filename = filename;
+            this.version = version;
+        }
+    }
+
+    private static class PackageIndex {
+        private final NpmPackage npmPackage;
+        // Library resources by canonical url, in index order, or null if the package has no index
+        private final Map<String, List<IndexedLibrary>> libraries;
+
+        private PackageIndex(NpmPackage npmPackage, Map<String, List<IndexedLibrary>> libraries) {
+            this.npmPackage = npmPackage;
+            this.libraries = libraries;
+        }
+    }
+
     public NpmLibrarySourceProvider(List<NpmPackage> packages, ILibraryReader reader, IWorkerContext.ILoggingService logger) {
         this.packages = packages;
         this.reader = reader;
         this.logger = logger;
+        index();
     }
 
     private List<NpmPackage> packages;
     private ILibraryReader reader;
     private IWorkerContext.ILoggingService logger;
+    // The indexed libraries of each package, in package order
+    private List<PackageIndex> indexes = new ArrayList<>();
+    // CQL source by canonical url and requested version
+    private Map<String, byte[]> sources = new ConcurrentHashMap<>();
+
+    // Reads the .index.json of each package, which lists the url and version of its resources
+    private void index() {
+        for (NpmPackage p : packages) {
+            Map<String, List<IndexedLibrary>> libraries = null;
+            try {
+                if (p.hasFile("package", ".index.json")) {
+                    JsonObject index;
+                    try (InputStream s = p.load("package", ".index.json")) {
+                        index = new JsonParser().parse(new InputStreamReader(new BOMInputStream(s), StandardCharsets.UTF_8)).getAsJsonObject();
+                    }
+                    libraries = new HashMap<>();
+                    for (JsonElement file : index.getAsJsonArray("files")) {
+                        JsonObject resource = file.getAsJsonObject();
+                        if ("Library".equals(getString(resource, "resourceType")) && getString(resource, "url") != null) {
+                            libraries.computeIfAbsent(getString(resource, "url"), url -> new ArrayList<>())
+                                .add(new IndexedLibrary(getString(resource, "filename"), getString(resource, "version")));
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.logDebugMessage(IWorkerContext.ILoggingService.LogCategory.PROGRESS, String.format("Unable to index the libraries of npm package %s", p.name()));
+                libraries = null;
+            }
+            indexes.add(new PackageIndex(p, libraries));
+        }
+    }
+
+    private static String getString(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
 
     @Override
     public InputStream getLibrarySource(VersionedIdentifier identifier) {
         // VersionedIdentifier.id: Name of the library
         // VersionedIdentifier.system: Namespace for the library, as a URL
         // VersionedIdentifier.version: Version of the library
-        for (NpmPackage p : packages) {
+        String url = identifier.getSystem() + "/Library/" + identifier.getId();
+        byte[] source = sources.computeIfAbsent(url + "|" + identifier.getVersion(), key -> loadSource(url, identifier));
+        return source != NO_SOURCE ? new ByteArrayInputStream(source) : null;
+    }
+
+    // The CQL of the library in the first package, in package order, that has it with CQL content
+    private byte[] loadSource(String url, VersionedIdentifier identifier) {
+        for (PackageIndex index : indexes) {
             try {
-                InputStream s = p.loadByCanonicalVersion(identifier.getSystem()+"/Library/"+identifier.getId(), identifier.getVersion());
+                InputStream s = load(index, url, identifier.getVersion());
                 if (s != null) {
-                    Library l = reader.readLibrary(s);
-                    for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
-                        if (a.getContentType() != null && a.getContentType().equals("text/cql")) {
-                            return new ByteArrayInputStream(a.getData());
-                        }
+                    byte[] source = getCql(s);
+                    if (source != null) {
+                        return source;
                     }
                 }
             } catch (IOException e) {
@@ -47,7 +128,35 @@ public class NpmLibrarySourceProvider implements LibrarySourceProvider {
             }
         }
 
+        return NO_SOURCE;
+    }
+
+    // The first library with the url in the package, of the requested version if there is one, as loadByCanonicalVersion finds it
+    private InputStream load(PackageIndex index, String url, String version) throws IOException {
+        if (index.libraries == null) {
+            return index.npmPackage.loadByCanonicalVersion(url, version);
+        }
+
+        List<IndexedLibrary> candidates = index.libraries.get(url);
+        if (candidates != null) {
+            for (IndexedLibrary candidate : candidates) {
+                if (version == null || version.equals(candidate.version)) {
+                    return index.npmPackage.load("package", candidate.filename);
+                }
+            }
+        }
+        return null;
+    }
+
+    private byte[] getCql(InputStream s) throws IOException {
+        try (InputStream stream = s) {
+            Library l = reader.readLibrary(stream);
+            for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
+                if (a.getContentType() != null && a.getContentType().equals("text/cql")) {
+                    return a.getData();
+                }
+            }
+        }
         return null;
     }
 }
-
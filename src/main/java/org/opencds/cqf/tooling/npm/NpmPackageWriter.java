@@ -0,0 +1,210 @@
+package org.opencds.cqf.tooling.npm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Writes bundled IG content as an NPM package (package.tgz), streaming each resource into the archive as it is
+ * added rather than staging the files on disk.
+ *
+ * The archive starts with package/package.json, each resource is written once as package/[type]-[id].json, and
+ * package/.index.json, which lists the resources, is written when the package is closed. A package that could not
+ * be completed is aborted, which deletes it rather than leaving a valid looking package with missing content.
+ */
+public class NpmPackageWriter implements AutoCloseable {
+
+    private final File file;
+    private final FhirContext fhirContext;
+    private final TarArchiveOutputStream archive;
+    // SHA-256 hashes of the content written, by file name
+    private final Map<String, String> hashes = new HashMap<>();
+    // The error that left the archive incomplete, or null
+    private IOException failure;
+    private final JsonArray index = new JsonArray();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * @param packageId The name of the package
+     * @param version The version of the package
+     * @param canonical The canonical base of the IG, or null
+     */
+    public NpmPackageWriter(File file, String packageId, String version, String canonical, FhirContext fhirContext) throws IOException {
+        this.file = file;
+        this.fhirContext = fhirContext;
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+        this.archive = new TarArchiveOutputStream(new GzipCompressorOutputStream(stream));
+        this.archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+
+        JsonObject manifest = new JsonObject();
+        manifest.addProperty("name", packageId);
+        manifest.addProperty("version", version);
+        if (canonical != null) {
+            manifest.addProperty("canonical", canonical);
+        }
+        JsonArray fhirVersions = new JsonArray();
+        fhirVersions.add(fhirContext.getVersion().getVersion().getFhirVersionString());
+        manifest.add("fhirVersions", fhirVersions);
+        writeEntry("package/package.json", gson.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds the resource to the package, unless the same resource has been added already
+     * @return true if the resource was added
+     * @throws IllegalArgumentException if the resource has no id, or a different resource of the same type and id
+     * has been added
+     */
+    public boolean addResource(IBaseResource resource) throws IOException {
+        return addResources(Collections.singletonList(resource)) == 1;
+    }
+
+    /**
+     * Adds the resources of an artifact to the package, skipping those that have been added already. The resources
+     * are checked before any is written, so that an artifact is either added completely or not at all.
+     * @return The number of resources added
+     * @throws IllegalArgumentException if a resource has no id, or a different resource of the same type and id has
+     * been added
+     */
+    public synchronized int addResources(List<IBaseResource> resources) throws IOException {
+        if (failure != null) {
+            throw new IOException("The package can not be written: " + failure.getMessage(), failure);
+        }
+
+        // The content, its hash and the resource of each file to write
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        Map<String, String> contentHashes = new HashMap<>();
+        List<IBaseResource> added = new ArrayList<>();
+        for (IBaseResource resource : resources) {
+            String resourceType = fhirContext.getResourceDefinition(resource).getName();
+            String id = resource.getIdElement().getIdPart();
+            if (id == null || id.isEmpty()) {
+                throw new IllegalArgumentException(resourceType + " resource has no id and can not be added to the package");
+            }
+
+            String filename = resourceType + "-" + id + ".json";
+            byte[] content = IOUtils.parseResource(resource, Encoding.JSON, fhirContext);
+            String hash = DigestUtils.sha256Hex(content);
+            String existingHash = hashes.containsKey(filename) ? hashes.get(filename) : contentHashes.get(filename);
+            if (existingHash != null) {
+                if (!existingHash.equals(hash)) {
+                    throw new IllegalArgumentException(String.format("%s/%s has different content than the %s/%s already in the package",
+                        resourceType, id, resourceType, id));
+                }
+                continue;
+            }
+            contents.put(filename, content);
+            contentHashes.put(filename, hash);
+            added.add(resource);
+        }
+
+        int i = 0;
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            try {
+                writeEntry("package/" + content.getKey(), content.getValue());
+            }
+            catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            hashes.put(content.getKey(), contentHashes.get(content.getKey()));
+            index.add(getIndexEntry(content.getKey(), added.get(i++)));
+        }
+        return contents.size();
+    }
+
+    private JsonObject getIndexEntry(String filename, IBaseResource resource) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("filename", filename);
+        entry.addProperty("resourceType", fhirContext.getResourceDefinition(resource).getName());
+        entry.addProperty("id", resource.getIdElement().getIdPart());
+        String url = getUrl(resource);
+        if (url != null) {
+            entry.addProperty("url", url);
+        }
+        String version = IOUtils.getCanonicalResourceVersion(resource, fhirContext);
+        if (version != null) {
+            entry.addProperty("version", version);
+        }
+        return entry;
+    }
+
+    public synchronized int getResourceCount() {
+        return hashes.size();
+    }
+
+    private String getUrl(IBaseResource resource) {
+        if (resource instanceof org.hl7.fhir.dstu3.model.MetadataResource) {
+            return ((org.hl7.fhir.dstu3.model.MetadataResource)resource).getUrl();
+        }
+        if (resource instanceof org.hl7.fhir.r4.model.MetadataResource) {
+            return ((org.hl7.fhir.r4.model.MetadataResource)resource).getUrl();
+        }
+        return null;
+    }
+
+    private void writeEntry(String name, byte[] content) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        archive.putArchiveEntry(entry);
+        archive.write(content);
+        archive.closeArchiveEntry();
+    }
+
+    /**
+     * Writes the index and finishes the archive
+     * @throws IOException if the package could not be completed; the package is deleted in that case
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (failure != null) {
+            abort();
+            throw new IOException("The package could not be written: " + failure.getMessage(), failure);
+        }
+
+        JsonObject indexFile = new JsonObject();
+        indexFile.addProperty("index-version", 1);
+        indexFile.add("files", index);
+        writeEntry("package/.index.json", gson.toJson(indexFile).getBytes(StandardCharsets.UTF_8));
+        archive.close();
+    }
+
+    /**
+     * Discards the package, deleting the archive written so far
+     */
+    public synchronized void abort() {
+        try {
+            archive.close();
+        }
+        catch (IOException e) {
+            // The archive is deleted regardless
+        }
+        file.delete();
+    }
+}
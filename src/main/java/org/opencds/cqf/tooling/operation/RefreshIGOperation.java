@@ -3,6 +3,7 @@ package org.opencds.cqf.tooling.operation;
 import org.opencds.cqf.tooling.Operation;
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
 import org.opencds.cqf.tooling.processor.IGProcessor;
+import org.opencds.cqf.tooling.processor.IGWatcher;
 import org.opencds.cqf.tooling.processor.argument.RefreshIGArgumentProcessor;
 
 public class RefreshIGOperation extends Operation {
@@ -22,6 +23,9 @@ public class RefreshIGOperation extends Operation {
         }
         IGProcessor processor = new IGProcessor();
         processor.publishIG(params);
+        if (params.watch != null && params.watch) {
+            new IGWatcher(processor, params).watch();
+        }
     }
 }
 
@@ -2,6 +2,8 @@ package org.opencds.cqf.tooling.parameter;
 
 import java.util.ArrayList;
 
+import org.opencds.cqf.tooling.processor.CqlProcessor;
+import org.opencds.cqf.tooling.utilities.FileCopier;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 
 public class RefreshIGParameters {
@@ -19,4 +21,19 @@ public class RefreshIGParameters {
     public ArrayList<String> resourceDirs;
     public Boolean conformant;
     public String measureToRefreshPath;
+    public Long resourceCacheMaximumWeight;
+    public Boolean useElmCache;
+    public String elmCacheDir;
+    public Integer resourceReaderThreads;
+    public FileCopier.Mode copyMode;
+    public Boolean watch;
+    public Integer translatorThreads;
+    public Boolean spillElm;
+    public String elmSpillDir;
+    public CqlProcessor.ElmEncodings elmEncodings;
+    public Boolean translationReport;
+    public String translationReportDir;
+    public Integer bundleThreads;
+    public Boolean npmPackage;
+    public String npmPackagePath;
 }
\ No newline at end of file
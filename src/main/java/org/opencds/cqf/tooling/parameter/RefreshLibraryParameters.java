@@ -1,5 +1,8 @@
 package org.opencds.cqf.tooling.parameter;
 
+import java.util.Collection;
+
+import org.opencds.cqf.tooling.processor.CqlProcessor;
 import org.opencds.cqf.tooling.processor.IProcessorContext;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
@@ -45,4 +48,14 @@ public class RefreshLibraryParameters {
     An initialized processor context that can provide the IG context directly
      */
     public IProcessorContext parentContext;
+
+    /*
+    The CQL files changed since the last refresh, if only the libraries they affect should be refreshed
+     */
+    public Collection<String> changedPaths;
+
+    /*
+    The ELM encodings to produce, or null for the defaults of the CQL processor
+     */
+    public CqlProcessor.ElmEncodings elmEncodings;
 }
\ No newline at end of file
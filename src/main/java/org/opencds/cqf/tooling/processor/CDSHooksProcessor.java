@@ -24,9 +24,9 @@ public class CDSHooksProcessor {
         String requestFilesPath = FilenameUtils.concat(igPath, requestsPathElement);
         String responseFilesPath = FilenameUtils.concat(igPath, responsesPathElement);
         String requestFilesDirectory = FilenameUtils.concat(bundleDestFilesPath, requestFilesPathElement);
-        IOUtils.initializeDirectory(requestFilesDirectory);
+        IOUtils.prepareDirectory(requestFilesDirectory);
         String responseFilesDirectory = FilenameUtils.concat(bundleDestFilesPath, responseFilesPathElement);
-        IOUtils.initializeDirectory(responseFilesDirectory);
+        IOUtils.prepareDirectory(responseFilesDirectory);
         List<String> requestDirectories = IOUtils.getDirectoryPaths(requestFilesPath, false);
         for (String dir : requestDirectories) {
             if (dir.endsWith(libraryName)) {
@@ -2,10 +2,20 @@ package org.opencds.cqf.tooling.processor;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.cqframework.cql.cql2elm.CqlTranslator;
 import org.cqframework.cql.cql2elm.CqlTranslatorException;
 import org.cqframework.cql.cql2elm.CqlTranslatorOptions;
@@ -51,18 +61,75 @@ import org.hl7.fhir.utilities.cache.NpmPackage;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.opencds.cqf.tooling.library.CqlSourceHeader;
+import org.opencds.cqf.tooling.library.ModelManagerCache;
 import org.opencds.cqf.tooling.npm.ILibraryReader;
 import org.opencds.cqf.tooling.npm.NpmLibrarySourceProvider;
+import org.opencds.cqf.tooling.utilities.ElmCache;
+import org.opencds.cqf.tooling.utilities.ElmStore;
+import org.opencds.cqf.tooling.utilities.LogUtils;
 
 public class CqlProcessor {
 
+    /**
+     * The ELM encodings produced for each translated library
+     */
+    public enum ElmEncodings {
+        XML("xml"), JSON("json"), BOTH("both"), NONE("none");
+
+        private String string;
+
+        public String toString() {
+            return this.string;
+        }
+
+        private ElmEncodings(String string) {
+            this.string = string;
+        }
+
+        public boolean includesXml() {
+            return this == XML || this == BOTH;
+        }
+
+        public boolean includesJson() {
+            return this == JSON || this == BOTH;
+        }
+
+        /**
+         * @return The encodings, or null if the value is null, in which case XML and the formats of cql-options.json are produced
+         */
+        public static ElmEncodings parse(String value) {
+            if (value == null) {
+                return null;
+            }
+
+            switch (value.trim().toLowerCase()) {
+                case "xml":
+                    return XML;
+                case "json":
+                    return JSON;
+                case "both":
+                    return BOTH;
+                case "none":
+                    return NONE;
+                default:
+                    throw new IllegalArgumentException("Unknown ELM encodings: " + value);
+            }
+        }
+    }
+
     /**
      * information about a cql file
+     *
+     * When an ELM store is set, the ELM is kept in the store and read back each time it is requested.
      */
     public class CqlSourceFileInformation {
         private VersionedIdentifier identifier;
         private byte[] elm;
         private byte[] jsonElm;
+        private ElmStore store;
+        private File elmFile;
+        private File jsonElmFile;
         private List<ValidationMessage> errors = new ArrayList<>();
         private List<RelatedArtifact> relatedArtifacts = new ArrayList<>();
         private List<DataRequirement> dataRequirements = new ArrayList<>();
@@ -74,16 +141,32 @@ public class CqlProcessor {
             this.identifier = identifier;
         }
         public byte[] getElm() {
-            return elm;
+            return elmFile != null ? store.get(elmFile) : elm;
         }
         public void setElm(byte[] elm) {
-            this.elm = elm;
+            if (elmStore != null && elm != null) {
+                store = elmStore;
+                this.elmFile = store.put(elm);
+                this.elm = null;
+            }
+            else {
+                this.elmFile = null;
+                this.elm = elm;
+            }
         }
         public byte[] getJsonElm() {
-            return jsonElm;
+            return jsonElmFile != null ? store.get(jsonElmFile) : jsonElm;
         }
         public void setJsonElm(byte[] jsonElm) {
-            this.jsonElm = jsonElm;
+            if (elmStore != null && jsonElm != null) {
+                store = elmStore;
+                this.jsonElmFile = store.put(jsonElm);
+                this.jsonElm = null;
+            }
+            else {
+                this.jsonElmFile = null;
+                this.jsonElm = jsonElm;
+            }
         }
         public List<ValidationMessage> getErrors() {
             return errors;
@@ -108,6 +191,11 @@ public class CqlProcessor {
      */
     private List<NpmPackage> packages;
 
+    /**
+     * Library source from the packages, indexed once and shared by every LibraryManager of the processor
+     */
+    private NpmLibrarySourceProvider npmLibrarySourceProvider;
+
     /**
      * All the file paths cql files might be found in (absolute local file paths)
      *
@@ -152,6 +240,73 @@ public class CqlProcessor {
 
     private NamespaceInfo namespaceInfo;
 
+    /**
+     * The ELM encodings to produce, or null for XML plus the JSON formats requested by the translator options
+     */
+    private ElmEncodings elmEncodings;
+
+    /**
+     * Number of threads used to translate the files of a folder. With more than one, files are translated in
+     * dependency order on a pool of this size.
+     */
+    public static int translatorThreads = 1;
+
+    private static ElmCache elmCache = null;
+    public static ElmCache getElmCache() {
+        return elmCache;
+    }
+
+    /**
+     * Enables the persistent ELM cache in the given directory, or disables it if the directory is null
+     */
+    public static void setElmCacheDirectory(String directoryPath) {
+        if (directoryPath != null && ElmCache.TRANSLATOR_VERSION == null) {
+            // Entries of different translators could not be told apart
+            LogUtils.info("The CQL translator version can not be determined; the ELM cache is disabled");
+            directoryPath = null;
+        }
+        elmCache = directoryPath != null ? new ElmCache(directoryPath) : null;
+    }
+
+    private static ElmStore elmStore = null;
+    public static ElmStore getElmStore() {
+        return elmStore;
+    }
+
+    /**
+     * Keeps translated ELM in a store on disk rather than on the heap, or on the heap if the store is null
+     */
+    public static void setElmStore(ElmStore store) {
+        elmStore = store;
+    }
+
+    /**
+     * Measurements of the translations of the last execution
+     */
+    private final TranslationMetrics translationMetrics = new TranslationMetrics();
+
+    public TranslationMetrics getTranslationMetrics() {
+        return translationMetrics;
+    }
+
+    /**
+     * Cache keys of included libraries by name and version, for the folder being translated
+     */
+    private Map<String, String> libraryKeys = new ConcurrentHashMap<>();
+
+    /**
+     * The libraries each translated library includes, taken from the IncludeDefs of its ELM, and the reverse index of
+     * the libraries that include each library. Kept across executions so the effect of a change can be found
+     * without translating.
+     */
+    private final Map<String, Set<String>> libraryIncludes = new HashMap<>();
+    private final Map<String, Set<String>> libraryDependents = new HashMap<>();
+
+    /**
+     * Library names of the translated files, by fully qualified file name
+     */
+    private final Map<String, String> libraryNamesByFile = new HashMap<>();
+
     public CqlProcessor(List<NpmPackage> packages, List<String> folders, ILibraryReader reader, ILoggingService logger, UcumService ucumService, String packageId, String canonicalBase) {
         super();
         this.packages = packages;
@@ -164,6 +319,17 @@ public class CqlProcessor {
         if (packageId != null && !packageId.isEmpty() && canonicalBase != null && !canonicalBase.isEmpty()) {
             this.namespaceInfo = new NamespaceInfo(packageId, canonicalBase);
         }
+        if (packages != null) {
+            this.npmLibrarySourceProvider = new NpmLibrarySourceProvider(packages, reader, logger);
+        }
+    }
+
+    public ElmEncodings getElmEncodings() {
+        return elmEncodings;
+    }
+
+    public void setElmEncodings(ElmEncodings elmEncodings) {
+        this.elmEncodings = elmEncodings;
     }
 
     /**
@@ -176,7 +342,8 @@ public class CqlProcessor {
     public void execute() throws FHIRException {
         try {
             logger.logMessage("Translating CQL source");
-            fileMap = new HashMap<>();
+            fileMap = new ConcurrentHashMap<>();
+            translationMetrics.clear();
 
             // foreach folder
             for (String folder : folders) {
@@ -188,6 +355,133 @@ public class CqlProcessor {
         }
     }
 
+    /**
+     * Re-translates only the libraries affected by the given changed files: the libraries in those files and all the
+     * libraries that include them, directly or indirectly. The first execution translates everything.
+     *
+     * @param changedFiles Fully qualified names of the CQL files that were added, modified or deleted
+     * @return The names of the libraries that were translated
+     */
+    public Set<String> execute(Collection<String> changedFiles) throws FHIRException {
+        if (fileMap == null) {
+            execute();
+            synchronized (this) {
+                return new HashSet<>(libraryNamesByFile.values());
+            }
+        }
+
+        Set<String> invalidatedLibraries = getInvalidatedLibraries(changedFiles);
+        forgetChangedFiles(changedFiles);
+        try {
+            logger.logMessage(String.format("Translating CQL source of %d changed libraries", invalidatedLibraries.size()));
+            fileMap = new ConcurrentHashMap<>();
+            translationMetrics.clear();
+
+            for (String folder : folders) {
+                libraryKeys.clear();
+                List<File> invalidatedFiles = new ArrayList<>();
+                for (File file : new File(folder).listFiles(getCqlFilenameFilter())) {
+                    if (invalidatedLibraries.contains(getLibraryName(file))) {
+                        invalidatedFiles.add(file);
+                    }
+                }
+
+                if (!invalidatedFiles.isEmpty()) {
+                    CqlTranslatorOptions options = getTranslatorOptions(folder);
+                    ModelManager modelManager = ModelManagerCache.getModelManager(new File(folder));
+                    LibraryManager libraryManager = createLibraryManager(modelManager, folder);
+                    for (File file : invalidatedFiles) {
+                        translateFile(modelManager, libraryManager, file, options);
+                    }
+                }
+            }
+        }
+        catch (Exception E) {
+            logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Errors occurred attempting to translate CQL content: %s", E.getMessage()));
+        }
+        return invalidatedLibraries;
+    }
+
+    /**
+     * Returns the names of the libraries invalidated by changes to the given files: the libraries in those files and
+     * every library that includes one of them, directly or indirectly, as of the last translation.
+     *
+     * @param changedFiles Fully qualified names of the CQL files that were added, modified or deleted
+     */
+    public synchronized Set<String> getInvalidatedLibraries(Collection<String> changedFiles) {
+        Set<String> changedLibraries = new HashSet<>();
+        for (String changedFile : changedFiles) {
+            File file = new File(changedFile).getAbsoluteFile();
+            // A change may rename the library, which affects the libraries including either name
+            String previousName = libraryNamesByFile.get(file.toString());
+            if (previousName != null) {
+                changedLibraries.add(previousName);
+            }
+            if (file.exists()) {
+                String libraryName = CqlSourceHeader.read(file).getName();
+                if (libraryName != null) {
+                    changedLibraries.add(libraryName);
+                }
+            }
+        }
+        return getDependentLibraries(changedLibraries);
+    }
+
+    /**
+     * Drops the library names recorded for the changed files, so they are read again from the files, and the
+     * includes of the libraries that were renamed or deleted.
+     */
+    private synchronized void forgetChangedFiles(Collection<String> changedFiles) {
+        for (String changedFile : changedFiles) {
+            File file = new File(changedFile).getAbsoluteFile();
+            String previousName = libraryNamesByFile.remove(file.toString());
+            if (previousName == null || (file.exists() && previousName.equals(CqlSourceHeader.read(file).getName()))) {
+                continue;
+            }
+
+            Set<String> previousIncludes = libraryIncludes.remove(previousName);
+            if (previousIncludes != null) {
+                for (String include : previousIncludes) {
+                    libraryDependents.getOrDefault(include, new HashSet<>()).remove(previousName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the given libraries and every library that includes one of them, directly or indirectly
+     */
+    public synchronized Set<String> getDependentLibraries(Collection<String> libraryNames) {
+        Set<String> result = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(libraryNames);
+        while (!pending.isEmpty()) {
+            String libraryName = pending.pop();
+            if (result.add(libraryName)) {
+                pending.addAll(libraryDependents.getOrDefault(libraryName, Collections.emptySet()));
+            }
+        }
+        return result;
+    }
+
+    private synchronized String getLibraryName(File file) {
+        String libraryName = libraryNamesByFile.get(file.getAbsoluteFile().toString());
+        return libraryName != null ? libraryName : CqlSourceHeader.read(file).getName();
+    }
+
+    private synchronized void recordIncludes(File file, String libraryName, Collection<String> includes) {
+        libraryNamesByFile.put(file.getAbsoluteFile().toString(), libraryName);
+
+        Set<String> previousIncludes = libraryIncludes.put(libraryName, new HashSet<>(includes));
+        if (previousIncludes != null) {
+            for (String include : previousIncludes) {
+                libraryDependents.getOrDefault(include, new HashSet<>()).remove(libraryName);
+            }
+        }
+        for (String include : includes) {
+            libraryDependents.computeIfAbsent(include, k -> new HashSet<>()).add(libraryName);
+        }
+    }
+
     /**
      * Return CqlSourceFileInformation for the given filename
      * @param filename Fully qualified name of the source file
@@ -258,25 +552,143 @@ public class CqlProcessor {
 
     private void translateFolder(String folder) {
         logger.logMessage(String.format("Translating CQL source in folder %s", folder));
+        libraryKeys.clear();
 
         CqlTranslatorOptions options = getTranslatorOptions(folder);
+        File[] files = new File(folder).listFiles(getCqlFilenameFilter());
+
+        if (translatorThreads > 1 && files != null && files.length > 1) {
+            translateFolder(folder, files, options, translatorThreads);
+            return;
+        }
+
+        ModelManager modelManager = ModelManagerCache.getModelManager(new File(folder));
+        LibraryManager libraryManager = createLibraryManager(modelManager, folder);
+
+        // foreach *.cql file
+        for (File file : files) {
+            translateFile(modelManager, libraryManager, file, options);
+        }
+    }
 
+    private LibraryManager createLibraryManager(ModelManager modelManager, String folder) {
         // Setup
         // Construct DefaultLibrarySourceProvider
         // Construct FhirLibrarySourceProvider
-        ModelManager modelManager = new ModelManager();
         LibraryManager libraryManager = new LibraryManager(modelManager);
-        if (packages != null) {
-            libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packages, reader, logger));
+        if (npmLibrarySourceProvider != null) {
+            libraryManager.getLibrarySourceLoader().registerProvider(npmLibrarySourceProvider);
         }
         libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
         libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
 
         loadNamespaces(libraryManager);
+        return libraryManager;
+    }
 
-        // foreach *.cql file
-        for (File file : new File(folder).listFiles(getCqlFilenameFilter())) {
-            translateFile(modelManager, libraryManager, file, options);
+    /**
+     * Translates the files of a folder on a pool of threads, each library only once all the libraries of the folder it
+     * includes have been translated.
+     *
+     * Every file is translated with its own LibraryManager, seeded with the libraries already translated for the folder,
+     * so a library shared by several files (e.g. FHIRHelpers) is translated once rather than by each file that includes it.
+     * Included libraries that are not in the folder are translated first.
+     */
+    private void translateFolder(String folder, File[] files, CqlTranslatorOptions options, int threads) {
+        Map<String, TranslatedLibrary> translatedLibraries = new ConcurrentHashMap<>();
+
+        List<CqlSourceHeader> fileHeaders = new ArrayList<>();
+        Map<String, CqlSourceHeader> headers = new HashMap<>();
+        for (File file : files) {
+            CqlSourceHeader header = CqlSourceHeader.read(file);
+            fileHeaders.add(header);
+            if (header.getName() != null) {
+                headers.putIfAbsent(header.getName(), header);
+            }
+        }
+        ModelManager modelManager = ModelManagerCache.getModelManager(fileHeaders);
+
+        // Libraries included from outside the folder are resolved through the package and FHIR source providers
+        LibraryManager externalLibraryManager = createLibraryManager(modelManager, folder);
+        Set<String> externalLibraries = new HashSet<>();
+        for (CqlSourceHeader header : fileHeaders) {
+            for (VersionedIdentifier include : header.getIncludes()) {
+                if (!headers.containsKey(include.getId()) && externalLibraries.add(include.getId())) {
+                    resolveLibrary(externalLibraryManager, include, options);
+                }
+            }
+        }
+        translatedLibraries.putAll(externalLibraryManager.getTranslatedLibraries());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, CompletableFuture<Void>> translations = new HashMap<>();
+            List<CompletableFuture<Void>> all = new ArrayList<>();
+            for (CqlSourceHeader header : fileHeaders) {
+                all.add(scheduleTranslation(header, headers, translations, new HashSet<>(),
+                    modelManager, folder, options, translatedLibraries, executor));
+            }
+            CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).join();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private CompletableFuture<Void> scheduleTranslation(CqlSourceHeader header, Map<String, CqlSourceHeader> headers,
+            Map<String, CompletableFuture<Void>> translations, Set<String> visiting, ModelManager modelManager, String folder,
+            CqlTranslatorOptions options, Map<String, TranslatedLibrary> translatedLibraries, ExecutorService executor) {
+        // Files without a library declaration, or that repeat a name, are never included so are scheduled on their own
+        boolean named = header.getName() != null && headers.get(header.getName()).getFile().equals(header.getFile());
+        if (named && translations.containsKey(header.getName())) {
+            return translations.get(header.getName());
+        }
+
+        List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+        if (named) {
+            visiting.add(header.getName());
+        }
+        for (VersionedIdentifier include : header.getIncludes()) {
+            CqlSourceHeader includedHeader = headers.get(include.getId());
+            // Circular includes are left for the translator to report
+            if (includedHeader != null && !visiting.contains(include.getId())) {
+                dependencies.add(scheduleTranslation(includedHeader, headers, translations, visiting, modelManager, folder,
+                    options, translatedLibraries, executor));
+            }
+        }
+        if (named) {
+            visiting.remove(header.getName());
+        }
+
+        CompletableFuture<Void> translation = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+            .handle((result, e) -> null)
+            .thenAcceptAsync(v -> {
+                LibraryManager libraryManager = createLibraryManager(modelManager, folder);
+                libraryManager.getTranslatedLibraries().putAll(translatedLibraries);
+                TranslatedLibrary translatedLibrary = translateFile(modelManager, libraryManager, header.getFile(), options);
+                if (translatedLibrary != null) {
+                    VersionedIdentifier identifier = translatedLibrary.getIdentifier();
+                    translatedLibraries.putIfAbsent(NamespaceManager.getPath(identifier.getSystem(), identifier.getId()), translatedLibrary);
+                }
+                for (Map.Entry<String, TranslatedLibrary> entry : libraryManager.getTranslatedLibraries().entrySet()) {
+                    translatedLibraries.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }, executor);
+
+        if (named) {
+            translations.put(header.getName(), translation);
+        }
+        return translation;
+    }
+
+    private void resolveLibrary(LibraryManager libraryManager, VersionedIdentifier include, CqlTranslatorOptions options) {
+        VersionedIdentifier identifier = new VersionedIdentifier().withId(include.getId()).withVersion(include.getVersion())
+            .withSystem(namespaceInfo != null ? namespaceInfo.getUri() : null);
+        try {
+            libraryManager.resolveLibrary(identifier, options, new ArrayList<>());
+        }
+        catch (Exception e) {
+            // Reported when the including library is translated
         }
     }
 
@@ -326,16 +738,57 @@ public class CqlProcessor {
         }
     }
 
-    private void translateFile(ModelManager modelManager, LibraryManager libraryManager, File file, CqlTranslatorOptions options) {
+    /**
+     * @return The translated library, or null if the translation failed
+     */
+    private TranslatedLibrary translateFile(ModelManager modelManager, LibraryManager libraryManager, File file, CqlTranslatorOptions options) {
         logger.logMessage(String.format("Translating CQL source in file %s", file.toString()));
         CqlSourceFileInformation result = new CqlSourceFileInformation();
         fileMap.put(file.getAbsoluteFile().toString(), result);
+        TranslatedLibrary translatedLibrary = null;
+        TranslationMetrics.LibraryMetrics libraryMetrics = translationMetrics.start(file);
+        try {
+            translatedLibrary = translateFile(libraryManager, modelManager, file, options, result, libraryMetrics);
+        }
+        finally {
+            if (result.getIdentifier() != null) {
+                libraryMetrics.setLibrary(result.getIdentifier().getId());
+            }
+            libraryMetrics.setFailed(result.getIdentifier() == null);
+            translationMetrics.end(libraryMetrics);
+        }
+        return translatedLibrary;
+    }
+
+    private TranslatedLibrary translateFile(LibraryManager libraryManager, ModelManager modelManager, File file, CqlTranslatorOptions options,
+            CqlSourceFileInformation result, TranslationMetrics.LibraryMetrics libraryMetrics) {
+        TranslatedLibrary translatedLibrary = null;
+
+        String cacheKey = null;
+        if (elmCache != null) {
+            try {
+                cacheKey = getCacheKey(file, libraryManager, options);
+                ElmCache.Entry entry = elmCache.get(cacheKey);
+                if (entry != null) {
+                    restore(entry, result);
+                    recordIncludes(file, entry.id, entry.includes);
+                    libraryMetrics.setRestored(true);
+                    logger.logMessage("CQL translation restored from cache.");
+                    return null;
+                }
+            }
+            catch (Exception e) {
+                logger.logMessage(String.format("Unable to use cached translation of %s: %s", file.getName(), e.getMessage()));
+                cacheKey = null;
+            }
+        }
 
         try {
 
             // translate toXML
             CqlTranslator translator = CqlTranslator.fromFile(namespaceInfo, file, modelManager, libraryManager,
                     options.getValidateUnits() ? ucumService : null, options);
+            libraryMetrics.endTranslation();
 
             // record errors and warnings
             for (CqlTranslatorException exception : translator.getExceptions()) {
@@ -349,15 +802,20 @@ public class CqlProcessor {
             }
             else {
                 // convert to base64 bytes
-                // NOTE: Publication tooling requires XML content
-                result.setElm(translator.toXml().getBytes());
+                // NOTE: Publication tooling requires XML content, so it is produced unless other encodings are requested
                 result.setIdentifier(translator.toELM().getIdentifier());
-                if (options.getFormats().contains(CqlTranslator.Format.JSON)) {
-                    result.setJsonElm(translator.toJson().getBytes());
+                if (elmEncodings == null || elmEncodings.includesXml()) {
+                    result.setElm(translator.toXml().getBytes());
                 }
-                if (options.getFormats().contains(CqlTranslator.Format.JXSON)) {
-                    result.setJsonElm(translator.toJxson().getBytes());
+                if (elmEncodings == null || elmEncodings.includesJson()) {
+                    if (options.getFormats().contains(CqlTranslator.Format.JXSON)) {
+                        result.setJsonElm(translator.toJxson().getBytes());
+                    }
+                    else if (elmEncodings != null || options.getFormats().contains(CqlTranslator.Format.JSON)) {
+                        result.setJsonElm(translator.toJson().getBytes());
+                    }
                 }
+                libraryMetrics.endSerialization();
 
                 // TODO: Report context, requires 1.5 translator (ContextDef)
                 // NOTE: In STU3, only Patient context is supported
@@ -372,16 +830,122 @@ public class CqlProcessor {
                     result.getErrors().add(new ValidationMessage(paramMessage.getSource(), paramMessage.getType(), file.getName(),
                             paramMessage.getMessage(), paramMessage.getLevel()));
                 }
+                libraryMetrics.endExtraction();
 
                 // Extract dataRequirement data
                 result.dataRequirements.addAll(extractDataRequirements(translator.toRetrieves(), translator.getTranslatedLibrary(), libraryManager));
+                libraryMetrics.endDataRequirements();
+
+                List<String> includes = new ArrayList<>();
+                if (translator.toELM().getIncludes() != null) {
+                    for (IncludeDef def : translator.toELM().getIncludes().getDef()) {
+                        includes.add(NamespaceManager.getNamePart(def.getPath()));
+                    }
+                }
+                recordIncludes(file, result.getIdentifier().getId(), includes);
 
                 logger.logMessage("CQL translation completed successfully.");
+                translatedLibrary = translator.getTranslatedLibrary();
+                if (cacheKey != null) {
+                    elmCache.put(cacheKey, toCacheEntry(result, includes));
+                }
             }
         }
         catch (Exception e) {
             result.getErrors().add(new ValidationMessage(ValidationMessage.Source.Publisher, IssueType.EXCEPTION, file.getName(), "CQL Processing failed with exception: "+e.getMessage(), IssueSeverity.ERROR));
         }
+        return translatedLibrary;
+    }
+
+    /**
+     * The key of a translation is a hash of everything that determines its result: the translator version and options,
+     * the IG namespace, the source, and recursively the source of every library it includes.
+     */
+    private String getCacheKey(File file, LibraryManager libraryManager, CqlTranslatorOptions options) throws IOException {
+        byte[] source = Files.readAllBytes(file.toPath());
+        StringWriter optionsWriter = new StringWriter();
+        CqlTranslatorOptionsMapper.toWriter(optionsWriter, options);
+
+        StringBuilder key = new StringBuilder();
+        key.append(ElmCache.TRANSLATOR_VERSION).append('\n');
+        key.append(optionsWriter.toString()).append('\n');
+        if (elmEncodings != null) {
+            key.append(elmEncodings).append('\n');
+        }
+        key.append(packageId).append('|').append(canonicalBase).append('\n');
+        key.append(DigestUtils.sha256Hex(source));
+        for (VersionedIdentifier include : CqlSourceHeader.parse(file, new String(source, StandardCharsets.UTF_8)).getIncludes()) {
+            key.append('\n').append(getLibraryKey(include, libraryManager, new HashSet<>()));
+        }
+        return DigestUtils.sha256Hex(key.toString());
+    }
+
+    private String getLibraryKey(VersionedIdentifier include, LibraryManager libraryManager, Set<String> visiting) {
+        String name = include.getId() + "|" + include.getVersion();
+        String key = libraryKeys.get(name);
+        if (key != null) {
+            return key;
+        }
+        if (!visiting.add(name)) {
+            return "circular " + name;
+        }
+
+        StringBuilder builder = new StringBuilder(name);
+        VersionedIdentifier identifier = new VersionedIdentifier().withId(include.getId()).withVersion(include.getVersion())
+            .withSystem(namespaceInfo != null ? namespaceInfo.getUri() : null);
+        try (InputStream stream = libraryManager.getLibrarySourceLoader().getLibrarySource(identifier)) {
+            byte[] source = org.apache.commons.io.IOUtils.toByteArray(stream);
+            builder.append('\n').append(DigestUtils.sha256Hex(source));
+            for (VersionedIdentifier dependency : CqlSourceHeader.parse(null, new String(source, StandardCharsets.UTF_8)).getIncludes()) {
+                builder.append('\n').append(getLibraryKey(dependency, libraryManager, visiting));
+            }
+        }
+        catch (Exception e) {
+            // The translation will report the missing library, and a failed translation is not cached
+            builder.append("\nunresolved");
+        }
+        visiting.remove(name);
+
+        key = DigestUtils.sha256Hex(builder.toString());
+        libraryKeys.put(name, key);
+        return key;
+    }
+
+    private ElmCache.Entry toCacheEntry(CqlSourceFileInformation result, List<String> includes) {
+        ElmCache.Entry entry = new ElmCache.Entry();
+        entry.includes.addAll(includes);
+        entry.system = result.getIdentifier().getSystem();
+        entry.id = result.getIdentifier().getId();
+        entry.version = result.getIdentifier().getVersion();
+        entry.elm = result.getElm();
+        entry.jsonElm = result.getJsonElm();
+        entry.relatedArtifacts.addAll(result.getRelatedArtifacts());
+        entry.dataRequirements.addAll(result.getDataRequirements());
+        entry.parameters.addAll(result.getParameters());
+        for (ValidationMessage error : result.getErrors()) {
+            ElmCache.Message message = new ElmCache.Message();
+            message.type = error.getType().name();
+            message.line = error.getLine();
+            message.column = error.getCol();
+            message.location = error.getLocation();
+            message.message = error.getMessage();
+            message.level = error.getLevel().name();
+            entry.messages.add(message);
+        }
+        return entry;
+    }
+
+    private void restore(ElmCache.Entry entry, CqlSourceFileInformation result) {
+        result.setIdentifier(new VersionedIdentifier().withSystem(entry.system).withId(entry.id).withVersion(entry.version));
+        result.setElm(entry.elm);
+        result.setJsonElm(entry.jsonElm);
+        result.relatedArtifacts.addAll(entry.relatedArtifacts);
+        result.dataRequirements.addAll(entry.dataRequirements);
+        result.parameters.addAll(entry.parameters);
+        for (ElmCache.Message message : entry.messages) {
+            result.getErrors().add(new ValidationMessage(ValidationMessage.Source.Publisher, IssueType.valueOf(message.type),
+                message.line, message.column, message.location, message.message, IssueSeverity.valueOf(message.level)));
+        }
     }
 
     private FilenameFilter getCqlFilenameFilter() {
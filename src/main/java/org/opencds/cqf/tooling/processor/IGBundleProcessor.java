@@ -1,13 +1,53 @@
 package org.opencds.cqf.tooling.processor;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.npm.NpmPackageWriter;
+import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+import org.opencds.cqf.tooling.utilities.LogUtils;
 
 import ca.uhn.fhir.context.FhirContext;
 
 public class IGBundleProcessor {
-    public static final String bundleFilesPathElement = "files/";    
+    public static final String bundleFilesPathElement = "files/";
+
+    // Number of threads bundling artifacts; 1 bundles them one at a time
+    public static int bundleThreads = 1;
+
+    // The package bundled resources are written to instead of bundle files, or null
+    private static NpmPackageWriter packageWriter = null;
+
+    public static NpmPackageWriter getPackageWriter() {
+        return packageWriter;
+    }
+
+    /**
+     * Sets the package that bundled resources are written to; bundle directories are not written while it is set
+     */
+    public static void setPackageWriter(NpmPackageWriter writer) {
+        packageWriter = writer;
+    }
+
+    static void addToPackage(List<IBaseResource> resources) {
+        try {
+            packageWriter.addResources(resources);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error writing to package: " + e.getMessage(), e);
+        }
+    }
 
     public static void bundleIg(ArrayList<String> refreshedLibraryNames, String igPath, Encoding encoding, Boolean includeELM,
             Boolean includeDependencies, Boolean includeTerminology, Boolean includePatientScenarios, Boolean versioned, Boolean cdsHooksIg,
@@ -19,4 +59,65 @@ public class IGBundleProcessor {
         PlanDefinitionProcessor.bundlePlanDefinitions(refreshedLibraryNames, igPath, includeDependencies, includeTerminology, includePatientScenarios, versioned, cdsHooksIg,
                 fhirContext, fhirUri, encoding);
     }
-}
\ No newline at end of file
+
+    /**
+     * Bundles each of the named artifacts, on a pool of bundleThreads worker threads when more than one is configured.
+     *
+     * Each artifact is bundled into its own directory, so the output does not depend on the number of threads. The
+     * LogUtils warnings of an artifact bundled on a worker are kept apart from those of the others, and the resources
+     * it reads are read on the worker itself rather than on the shared reader pool. Artifacts are
+     * bundled one at a time while a package is written, so that the package is written in the order given.
+     * @param bundler Bundles the named artifact, returning whether it was bundled
+     * @return The names of the bundled artifacts, in the order given, each listed once
+     */
+    public static List<String> bundleArtifacts(List<String> names, Predicate<String> bundler) {
+        List<String> bundled = new ArrayList<String>();
+        if (bundleThreads <= 1 || names.size() <= 1 || packageWriter != null) {
+            // A name given more than once is bundled once, since each would write the same directory
+            for (String name : new LinkedHashSet<String>(names)) {
+                if (bundler.test(name)) {
+                    bundled.add(name);
+                }
+            }
+            return bundled;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(bundleThreads, names.size()));
+        try {
+            Map<String, Future<Boolean>> futures = new LinkedHashMap<String, Future<Boolean>>();
+            for (String name : names) {
+                futures.computeIfAbsent(name, n -> executor.submit(() -> {
+                    LogUtils.beginIsolatedWarnings();
+                    IOUtils.setReadOnCallingThread(true);
+                    try {
+                        return bundler.test(n);
+                    }
+                    finally {
+                        IOUtils.setReadOnCallingThread(false);
+                        LogUtils.endIsolatedWarnings();
+                    }
+                }));
+            }
+
+            for (String name : futures.keySet()) {
+                try {
+                    if (futures.get(name).get()) {
+                        bundled.add(name);
+                    }
+                }
+                catch (ExecutionException e) {
+                    LogUtils.putException(name, e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+                    LogUtils.warn(name);
+                }
+            }
+            return bundled;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while bundling", e);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
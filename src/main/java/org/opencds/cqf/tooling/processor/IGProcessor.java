@@ -1,18 +1,27 @@
 package org.opencds.cqf.tooling.processor;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 
 import org.apache.commons.io.FilenameUtils;
+import org.opencds.cqf.tooling.library.CompiledLibraryRegistry;
+import org.opencds.cqf.tooling.library.ModelManagerCache;
+import org.opencds.cqf.tooling.npm.NpmPackageWriter;
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
 import org.opencds.cqf.tooling.parameter.RefreshLibraryParameters;
+import org.opencds.cqf.tooling.utilities.ElmCache;
+import org.opencds.cqf.tooling.utilities.ElmStore;
+import org.opencds.cqf.tooling.utilities.FhirContextCache;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.OutputFingerprints;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
 
 public class IGProcessor extends BaseProcessor {
     //mega ig method
@@ -36,8 +45,33 @@ public class IGProcessor extends BaseProcessor {
         ArrayList<String> resourceDirs = params.resourceDirs;
 
         IOUtils.resourceDirectories.addAll(resourceDirs);
+        if (params.resourceCacheMaximumWeight != null) {
+            IOUtils.setResourceCacheMaximumWeight(params.resourceCacheMaximumWeight);
+        }
+        if (params.resourceReaderThreads != null) {
+            IOUtils.resourceReaderThreads = params.resourceReaderThreads;
+        }
+        if (params.translatorThreads != null) {
+            CqlProcessor.translatorThreads = params.translatorThreads;
+        }
+        if (params.bundleThreads != null) {
+            IGBundleProcessor.bundleThreads = params.bundleThreads;
+        }
+        if (params.copyMode != null) {
+            IOUtils.copyMode = params.copyMode;
+        }
+        OutputFingerprints.resetCounts();
+        if (params.useElmCache != null && params.useElmCache) {
+            CqlProcessor.setElmCacheDirectory(params.elmCacheDir != null
+                ? params.elmCacheDir : FilenameUtils.concat(rootDir, ElmCache.DEFAULT_DIRECTORY_NAME));
+        }
+        if (params.spillElm != null && params.spillElm) {
+            CqlProcessor.setElmStore(params.elmSpillDir != null ? new ElmStore(new File(params.elmSpillDir)) : ElmStore.createTemporary());
+        }
 
         FhirContext fhirContext = IGProcessor.getIgFhirContext(fhirVersion);
+        // Load the model info for the IG's FHIR version once, for all translations in the process
+        ModelManagerCache.getModelManager(fhirContext.getVersion().getVersion());
 
         //Use case 1
         //Scaffold basic templating for the type of content, Measure, PlanDefinition, or Questionnaire
@@ -48,6 +82,9 @@ public class IGProcessor extends BaseProcessor {
         //refreshcontent
         LogUtils.info("IGProcessor.publishIG - refreshIG");
         refreshIG(params);
+        if (params.translationReport != null && params.translationReport) {
+            reportTranslation(params.translationReportDir != null ? params.translationReportDir : getBundlesPath(rootDir));
+        }
         //validate
         //ValidateProcessor.validate(ValidateParameters);
         //run all tests
@@ -56,13 +93,83 @@ public class IGProcessor extends BaseProcessor {
         //Use case 3
         //package everything
         LogUtils.info("IGProcessor.publishIG - bundleIg");
-        IGBundleProcessor.bundleIg(refreshedResourcesNames, rootDir, encoding, includeELM, includeDependencies, includeTerminology, includePatientScenarios,
-        versioned, cdsHooksIg, fhirContext, fhirUri);
+        if (params.npmPackage != null && params.npmPackage) {
+            bundleIgPackage(params.npmPackagePath != null ? params.npmPackagePath : FilenameUtils.concat(getBundlesPath(rootDir), "package.tgz"),
+                encoding, includeELM, includeDependencies, includeTerminology, includePatientScenarios, versioned, cdsHooksIg, fhirContext, fhirUri);
+        }
+        else {
+            IGBundleProcessor.bundleIg(refreshedResourcesNames, rootDir, encoding, includeELM, includeDependencies, includeTerminology, includePatientScenarios,
+            versioned, cdsHooksIg, fhirContext, fhirUri);
+        }
+        LogUtils.info("IGProcessor.publishIG - resource cache: " + IOUtils.getResourceCache());
+        if (CqlProcessor.getElmCache() != null) {
+            LogUtils.info("IGProcessor.publishIG - ELM cache: " + CqlProcessor.getElmCache());
+        }
+        if (CqlProcessor.getElmStore() != null) {
+            LogUtils.info("IGProcessor.publishIG - ELM store: " + CqlProcessor.getElmStore());
+        }
+        LogUtils.info("IGProcessor.publishIG - output files: " + OutputFingerprints.getStatistics());
+        LogUtils.info("IGProcessor.publishIG - compiled libraries: " + CompiledLibraryRegistry.getStatistics());
         //test everything
         //IGTestProcessor.testIg(IGTestParameters);
         //Publish?
     }
 
+    // Bundles the IG into an NPM package rather than bundle files
+    private void bundleIgPackage(String path, Encoding encoding, Boolean includeELM, Boolean includeDependencies, Boolean includeTerminology,
+            Boolean includePatientScenarios, Boolean versioned, Boolean cdsHooksIg, FhirContext fhirContext, String fhirUri) {
+        String name = packageId != null ? packageId : FilenameUtils.getName(FilenameUtils.normalizeNoEndSeparator(rootDir));
+        String version = sourceIg != null && sourceIg.hasVersion() ? sourceIg.getVersion() : "0.0.0";
+        NpmPackageWriter packageWriter;
+        try {
+            packageWriter = new NpmPackageWriter(new File(path), name, version, canonicalBase, fhirContext);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error writing package " + path + ": " + e.getMessage(), e);
+        }
+
+        // The package is only completed if bundling succeeds; otherwise it is deleted rather than left incomplete
+        boolean completed = false;
+        try {
+            IGBundleProcessor.setPackageWriter(packageWriter);
+            IGBundleProcessor.bundleIg(refreshedResourcesNames, rootDir, encoding, includeELM, includeDependencies, includeTerminology, includePatientScenarios,
+                versioned, cdsHooksIg, fhirContext, fhirUri);
+            packageWriter.close();
+            completed = true;
+            LogUtils.info(String.format("IGProcessor.publishIG - package: %s (%d resources)", path, packageWriter.getResourceCount()));
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error writing package " + path + ": " + e.getMessage(), e);
+        }
+        finally {
+            IGBundleProcessor.setPackageWriter(null);
+            if (!completed) {
+                packageWriter.abort();
+            }
+        }
+    }
+
+    private static void reportTranslation(String directory) {
+        TranslationMetrics metrics = LibraryProcessor.getTranslationMetrics();
+        if (metrics == null) {
+            LogUtils.info("IGProcessor.publishIG - no CQL was translated");
+            return;
+        }
+
+        LogUtils.info("IGProcessor.publishIG - most expensive CQL translations:");
+        for (String line : metrics.getSummary(10)) {
+            LogUtils.info("  " + line);
+        }
+        try {
+            new File(directory).mkdirs();
+            metrics.writeReport(directory);
+            LogUtils.info("IGProcessor.publishIG - translation report written to " + directory);
+        }
+        catch (IOException e) {
+            LogUtils.info("IGProcessor.publishIG - unable to write the translation report: " + e.getMessage());
+        }
+    }
+
     public ArrayList<String> refreshedResourcesNames = new ArrayList<String>();
     public void refreshIG(RefreshIGParameters params) {
         if (params.ini != null) {
@@ -89,7 +196,7 @@ public class IGProcessor extends BaseProcessor {
         IGProcessor.ensure(rootDir, includePatientScenarios, includeTerminology, IOUtils.resourceDirectories);
 
         List<String> refreshedLibraryNames;
-        refreshedLibraryNames = LibraryProcessor.refreshIgLibraryContent(this, encoding, versioned, fhirContext);
+        refreshedLibraryNames = LibraryProcessor.refreshIgLibraryContent(this, encoding, versioned, fhirContext, null, params.elmEncodings);
         // Only add libraries if this is a cds IG, else only measures.
         if (params.cdsHooksIg) {
             refreshedResourcesNames.addAll(refreshedLibraryNames);
@@ -120,11 +227,11 @@ public class IGProcessor extends BaseProcessor {
             case "3.0.0":
             case "3.0.1":
             case "3.0.2":
-                return FhirContext.forDstu3();
+                return FhirContextCache.getContext(FhirVersionEnum.DSTU3);
 
             case "4.0.0":
             case "4.0.1":
-                return FhirContext.forR4();
+                return FhirContextCache.getContext(FhirVersionEnum.R4);
 
             default:
                 throw new IllegalArgumentException("Unknown IG version: " + igVersion);
@@ -0,0 +1,325 @@
+package org.opencds.cqf.tooling.processor;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
+import org.opencds.cqf.tooling.utilities.ArtifactIndex;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.LogUtils;
+import org.opencds.cqf.tooling.utilities.OutputFingerprints;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Watches the content directories of an IG and refreshes the libraries, measures and test cases affected by
+ * each change, keeping the FhirContext and cached content of the process between refreshes.
+ *
+ * Changes are collected until no further change has been seen for {@link #QUIET_PERIOD_MILLIS}, so that saving
+ * several files at once results in a single refresh.
+ */
+public class IGWatcher {
+
+    public static final long QUIET_PERIOD_MILLIS = 500;
+    public static final String cqlPathElement = "input/cql/";
+    public static final String resourcesPathElement = "input/resources/";
+
+    private final IGProcessor processor;
+    private final RefreshIGParameters params;
+    private final FhirContext fhirContext;
+    private final Path testsPath;
+    private final Set<Path> watchedPaths = new HashSet<Path>();
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+    private final Map<Path, FileTime> modifiedTimes = new HashMap<Path, FileTime>();
+
+    /**
+     * @param processor An IGProcessor that has refreshed the IG described by the parameters
+     */
+    public IGWatcher(IGProcessor processor, RefreshIGParameters params) {
+        this.processor = processor;
+        this.params = params;
+        this.fhirContext = IGProcessor.getIgFhirContext(processor.getFhirVersion());
+
+        String rootDir = processor.getRootDir();
+        this.testsPath = normalize(FilenameUtils.concat(rootDir, IGProcessor.testCasePathElement));
+        for (String pathElement : new String[] { cqlPathElement, IGProcessor.cqlLibraryPathElement, resourcesPathElement, IGProcessor.testCasePathElement }) {
+            Path path = normalize(FilenameUtils.concat(rootDir, pathElement));
+            if (Files.isDirectory(path)) {
+                watchedPaths.add(path);
+            }
+        }
+    }
+
+    /**
+     * Refreshes changed content until the thread is interrupted.
+     */
+    public void watch() {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            for (Path path : watchedPaths) {
+                register(watchService, path);
+            }
+            snapshot();
+            LogUtils.info("Watching " + processor.getRootDir() + " for changes");
+
+            while (true) {
+                Set<Path> changes = new HashSet<Path>();
+                boolean overflow = collect(watchService, watchService.take(), changes);
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(watchService, key, changes);
+                }
+
+                changes.removeIf(this::isUnchanged);
+                if (overflow || !changes.isEmpty()) {
+                    // Files saved while the refresh runs keep their earlier times, and are refreshed next
+                    snapshot();
+                    OutputFingerprints.beginRecording();
+                    try {
+                        refresh(changes, overflow);
+                    }
+                    catch (RuntimeException e) {
+                        LogUtils.putException("refresh", e);
+                        LogUtils.warn("Changed content");
+                    }
+                    finally {
+                        recordWritten(OutputFingerprints.endRecording());
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Error watching " + processor.getRootDir() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void register(WatchService watchService, Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>)paths.filter(Files::isDirectory)::iterator) {
+                watchedDirectories.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+            }
+        }
+    }
+
+    // Adds the paths changed in the key's directory, returning true if events were lost
+    private boolean collect(WatchService watchService, WatchKey key, Set<Path> changes) throws IOException {
+        boolean overflow = false;
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                overflow = true;
+                continue;
+            }
+
+            Path path = directory.resolve((Path)event.context());
+            changes.add(path);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files may have been written to the new directory before it was registered
+                register(watchService, path);
+                try (Stream<Path> paths = Files.walk(path)) {
+                    paths.forEach(changes::add);
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return overflow;
+    }
+
+    // Records the modified times of the watched content, against which later changes are compared
+    private void snapshot() throws IOException {
+        modifiedTimes.clear();
+        for (Path watchedPath : watchedPaths) {
+            try (Stream<Path> paths = Files.walk(watchedPath)) {
+                for (Path path : (Iterable<Path>)paths::iterator) {
+                    modifiedTimes.put(path, Files.getLastModifiedTime(path));
+                }
+            }
+        }
+    }
+
+    // Records the modified times of the files written by a refresh and of their watched directories, so that they are not refreshed again
+    private void recordWritten(Set<String> writtenPaths) {
+        for (String writtenPath : writtenPaths) {
+            Path path = normalize(writtenPath);
+            record(path);
+            if (modifiedTimes.containsKey(path.getParent())) {
+                record(path.getParent());
+            }
+        }
+    }
+
+    private void record(Path path) {
+        try {
+            modifiedTimes.put(path, Files.getLastModifiedTime(path));
+        }
+        catch (IOException e) {
+            modifiedTimes.remove(path);
+        }
+    }
+
+    private boolean isUnchanged(Path path) {
+        FileTime modifiedTime = modifiedTimes.get(path);
+        if (!Files.exists(path)) {
+            return modifiedTime == null;
+        }
+
+        try {
+            return Files.getLastModifiedTime(path).equals(modifiedTime);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The refresh steps a set of changed paths calls for
+     */
+    static class Changes {
+        boolean refreshLibraries;
+        boolean refreshAllLibraries;
+        final List<String> cqlPaths = new ArrayList<String>();
+        final Set<String> measurePaths = new TreeSet<String>();
+        final Set<Path> testArtifactPaths = new TreeSet<Path>();
+    }
+
+    /**
+     * Classifies the changed paths
+     * @param overflow Whether changes were lost, in which case all libraries are refreshed
+     * @param libraryPaths The normalized paths of the Library resources of the IG
+     * @param measurePaths The paths of the Measure resources of the IG, by normalized path
+     */
+    static Changes classify(Set<Path> changes, boolean overflow, Path testsPath, Set<Path> libraryPaths, Map<Path, String> measurePaths) {
+        Changes result = new Changes();
+        result.refreshLibraries = overflow;
+        result.refreshAllLibraries = overflow;
+        for (Path path : changes) {
+            if (path.startsWith(testsPath)) {
+                // input/tests/<resource type>/<artifact>/<test case>/...; files directly in the artifact directory are the generated bundles
+                Path relativePath = testsPath.relativize(path);
+                if (relativePath.getNameCount() > 3 || (relativePath.getNameCount() == 3 && !Files.isRegularFile(path))) {
+                    result.testArtifactPaths.add(testsPath.resolve(relativePath.subpath(0, 2)));
+                }
+            }
+            else if (path.toString().endsWith(".cql")) {
+                result.refreshLibraries = true;
+                result.cqlPaths.add(path.toString());
+            }
+            else if (libraryPaths.contains(path)) {
+                result.refreshLibraries = true;
+                result.refreshAllLibraries = true;
+            }
+            else if (measurePaths.containsKey(path)) {
+                result.measurePaths.add(measurePaths.get(path));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the measures invalidated by a library change, and the test cases of the invalidated measures and plan
+     * definitions, to the refresh
+     */
+    static void addInvalidated(Changes changes, InvalidatedArtifacts invalidatedArtifacts, ArtifactIndex artifactIndex, Path testsPath) {
+        for (String measure : invalidatedArtifacts.getMeasures()) {
+            changes.measurePaths.add(artifactIndex.getMeasurePath(measure, null));
+            changes.testArtifactPaths.add(testsPath.resolve(MeasureProcessor.MeasureTestGroupName).resolve(measure));
+        }
+        for (String planDefinition : invalidatedArtifacts.getPlanDefinitions()) {
+            changes.testArtifactPaths.add(testsPath.resolve(PlanDefinitionProcessor.PlanDefinitionTestGroupName).resolve(planDefinition));
+        }
+    }
+
+    private void refresh(Set<Path> changes, boolean overflow) {
+        long start = System.currentTimeMillis();
+        IOUtils.clearCaches();
+        ValueSetsProcessor.clearCachedValueSets();
+
+        Map<Path, String> measurePaths = new HashMap<Path, String>();
+        for (String measurePath : IOUtils.getMeasurePaths(fhirContext)) {
+            measurePaths.put(normalize(measurePath), measurePath);
+        }
+        Changes classified = classify(changes, overflow, testsPath, normalize(IOUtils.getLibraryPaths(fhirContext)), measurePaths);
+
+        if (classified.refreshAllLibraries) {
+            LibraryProcessor.refreshIgLibraryContent(processor, params.outputEncoding, params.versioned, fhirContext, null, params.elmEncodings);
+        }
+        else if (classified.refreshLibraries) {
+            InvalidatedArtifacts invalidatedArtifacts = LibraryProcessor.getInvalidatedArtifacts(classified.cqlPaths, fhirContext);
+            if (invalidatedArtifacts != null) {
+                LogUtils.info("Libraries affected by the change: " + invalidatedArtifacts.getLibraries());
+                addInvalidated(classified, invalidatedArtifacts, IOUtils.getArtifactIndex(fhirContext), testsPath);
+                if (!invalidatedArtifacts.getBundlePaths(processor.getRootDir()).isEmpty()) {
+                    LogUtils.info("Bundles to re-package: " + invalidatedArtifacts.getBundlePaths(processor.getRootDir()));
+                }
+            }
+            LibraryProcessor.refreshIgLibraryContent(processor, params.outputEncoding, params.versioned, fhirContext, classified.cqlPaths, params.elmEncodings);
+        }
+
+        if (overflow) {
+            MeasureProcessor.refreshIgMeasureContent(processor.getRootDir(), params.outputEncoding, params.versioned, fhirContext, params.measureToRefreshPath);
+        }
+        else {
+            for (String measurePath : classified.measurePaths) {
+                if (params.measureToRefreshPath == null || params.measureToRefreshPath.isEmpty() || params.measureToRefreshPath.equals(measurePath)) {
+                    MeasureProcessor.refreshIgMeasureContent(processor.getRootDir(), params.outputEncoding, params.versioned, fhirContext, measurePath);
+                }
+            }
+        }
+
+        if (params.includePatientScenarios) {
+            TestCaseProcessor testCaseProcessor = new TestCaseProcessor();
+            if (overflow) {
+                testCaseProcessor.refreshTestCases(testsPath.toString(), params.outputEncoding, fhirContext);
+            }
+            else {
+                for (Path testArtifactPath : classified.testArtifactPaths) {
+                    if (Files.isDirectory(testArtifactPath)) {
+                        LogUtils.info("Refreshing tests for " + testArtifactPath.getFileName());
+                        testCaseProcessor.refreshTestArtifact(testArtifactPath.toString(), params.outputEncoding, fhirContext);
+                    }
+                }
+            }
+        }
+
+        LogUtils.info(String.format("Refreshed %d changed file(s) in %d ms", changes.size(), System.currentTimeMillis() - start));
+    }
+
+    static Path normalize(String path) {
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    private static Set<Path> normalize(Set<String> paths) {
+        Set<Path> normalizedPaths = new HashSet<Path>();
+        for (String path : paths) {
+            normalizedPaths.add(normalize(path));
+        }
+        return normalizedPaths;
+    }
+}
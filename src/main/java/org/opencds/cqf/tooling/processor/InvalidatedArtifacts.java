@@ -0,0 +1,63 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FilenameUtils;
+import org.opencds.cqf.tooling.utilities.ArtifactIndex;
+
+/**
+ * The artifacts of an IG that need to be refreshed and re-packaged after a change to some of its libraries.
+ *
+ * By convention a Measure or PlanDefinition is bundled with the library of the same name, so it is invalidated
+ * along with that library, as is its bundle.
+ */
+public class InvalidatedArtifacts {
+
+    private final Set<String> libraries;
+    private final Set<String> measures = new TreeSet<String>();
+    private final Set<String> planDefinitions = new TreeSet<String>();
+
+    /**
+     * @param libraries The names of the invalidated libraries, e.g. from {@link CqlProcessor#getInvalidatedLibraries}
+     */
+    public InvalidatedArtifacts(Set<String> libraries, ArtifactIndex artifactIndex) {
+        this.libraries = new TreeSet<String>(libraries);
+        for (String library : libraries) {
+            if (artifactIndex.getMeasurePath(library, null) != null) {
+                measures.add(library);
+            }
+            if (artifactIndex.getPlanDefinitionPath(library, null) != null) {
+                planDefinitions.add(library);
+            }
+        }
+    }
+
+    public Set<String> getLibraries() {
+        return Collections.unmodifiableSet(libraries);
+    }
+
+    public Set<String> getMeasures() {
+        return Collections.unmodifiableSet(measures);
+    }
+
+    public Set<String> getPlanDefinitions() {
+        return Collections.unmodifiableSet(planDefinitions);
+    }
+
+    /**
+     * @return The bundle directories of the invalidated measures and plan definitions
+     */
+    public Set<String> getBundlePaths(String igPath) {
+        Set<String> bundlePaths = new TreeSet<String>();
+        String bundlesPath = IGProcessor.getBundlesPath(igPath);
+        for (String measure : measures) {
+            bundlePaths.add(FilenameUtils.concat(FilenameUtils.concat(bundlesPath, MeasureProcessor.MeasureTestGroupName), measure));
+        }
+        for (String planDefinition : planDefinitions) {
+            bundlePaths.add(FilenameUtils.concat(FilenameUtils.concat(bundlesPath, PlanDefinitionProcessor.PlanDefinitionTestGroupName), planDefinition));
+        }
+        return bundlePaths;
+    }
+}
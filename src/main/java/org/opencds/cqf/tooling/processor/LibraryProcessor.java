@@ -4,8 +4,15 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.FilenameUtils;
 import org.fhir.ucum.UcumEssenceService;
@@ -34,6 +41,15 @@ public class LibraryProcessor extends BaseProcessor {
     }
     
     public static List<String> refreshIgLibraryContent(BaseProcessor parentContext, Encoding outputEncoding, Boolean versioned, FhirContext fhirContext) {
+        return refreshIgLibraryContent(parentContext, outputEncoding, versioned, fhirContext, null, null);
+    }
+
+    /**
+     * @param changedPaths The CQL files changed since the last refresh, or null to refresh all libraries
+     * @param elmEncodings The ELM encodings to attach to the libraries, or null for the defaults of the CQL processor
+     */
+    public static List<String> refreshIgLibraryContent(BaseProcessor parentContext, Encoding outputEncoding, Boolean versioned, FhirContext fhirContext,
+            Collection<String> changedPaths, CqlProcessor.ElmEncodings elmEncodings) {
         System.out.println("Refreshing libraries...");
         ArrayList<String> refreshedLibraryNames = new ArrayList<String>();
 
@@ -57,21 +73,35 @@ public class LibraryProcessor extends BaseProcessor {
         params.fhirContext = fhirContext;
         params.encoding = outputEncoding;
         params.versioned = versioned;
+        params.changedPaths = changedPaths;
+        params.elmEncodings = elmEncodings;
         return libraryProcessor.refreshLibraryContent(params);
     }
 
+    /**
+     * Returns the libraries, measures and bundles invalidated by changes to the given CQL files, based on the includes
+     * found by the last library refresh, or null if libraries have not been refreshed yet.
+     */
+    public static InvalidatedArtifacts getInvalidatedArtifacts(Collection<String> changedPaths, FhirContext fhirContext) {
+        if (lastCqlProcessor == null) {
+            return null;
+        }
+        return new InvalidatedArtifacts(lastCqlProcessor.getInvalidatedLibraries(changedPaths), IOUtils.getArtifactIndex(fhirContext));
+    }
+
+    /**
+     * Returns the translation measurements of the last library refresh, or null if libraries have not been refreshed yet.
+     */
+    public static TranslationMetrics getTranslationMetrics() {
+        return lastCqlProcessor != null ? lastCqlProcessor.getTranslationMetrics() : null;
+    }
+
     public static Boolean bundleLibraryDependencies(String path, FhirContext fhirContext, Map<String, IBaseResource> resources,
             Encoding encoding, boolean versioned) {
         Boolean shouldPersist = true;
         try {
-            Map<String, IBaseResource> dependencies = ResourceUtils.getDepLibraryResources(path, fhirContext, encoding);
-            String currentResourceID = IOUtils.getTypeQualifiedResourceId(path, fhirContext);
-            for (IBaseResource resource : dependencies.values()) {
+            for (IBaseResource resource : getLibraryDependencies(path, fhirContext, encoding, versioned).values()) {
                 resources.putIfAbsent(resource.getIdElement().getIdPart(), resource);
-
-                // NOTE: Assuming dependency library will be in directory of dependent.
-                String dependencyPath = IOUtils.getResourceFileName(IOUtils.getResourceDirectory(path), resource, encoding, fhirContext, versioned);
-                 bundleLibraryDependencies(dependencyPath, fhirContext, resources, encoding, versioned);
             }
         } catch (Exception e) {
             shouldPersist = false;
@@ -80,10 +110,67 @@ public class LibraryProcessor extends BaseProcessor {
         return shouldPersist;
     }
 
+    // Transitive library dependencies by FHIR version, encoding, versioning and library path
+    private static final Map<String, Map<String, IBaseResource>> libraryDependencies = new ConcurrentHashMap<String, Map<String, IBaseResource>>();
+
+    /**
+     * Returns the libraries the library at the given path depends on, directly or through other libraries, by id.
+     *
+     * The dependencies of each library are resolved once and shared by every artifact that includes it, until
+     * clearLibraryDependencies is called. A dependency whose own dependencies can not be read is recorded with
+     * LogUtils.putException and contributes only itself; that failure is not remembered.
+     */
+    public static Map<String, IBaseResource> getLibraryDependencies(String path, FhirContext fhirContext, Encoding encoding, boolean versioned) {
+        return getLibraryDependencies(path, fhirContext, encoding, versioned, new HashSet<String>());
+    }
+
+    private static Map<String, IBaseResource> getLibraryDependencies(String path, FhirContext fhirContext, Encoding encoding, boolean versioned,
+            Set<String> visiting) {
+        String key = fhirContext.getVersion().getVersion() + "|" + encoding + "|" + versioned + "|" + path;
+        Map<String, IBaseResource> dependencies = libraryDependencies.get(key);
+        if (dependencies != null) {
+            return dependencies;
+        }
+
+        dependencies = new HashMap<String, IBaseResource>();
+        visiting.add(path);
+        for (IBaseResource resource : ResourceUtils.getDepLibraryResources(path, fhirContext, encoding).values()) {
+            dependencies.putIfAbsent(resource.getIdElement().getIdPart(), resource);
+
+            // NOTE: Assuming dependency library will be in directory of dependent.
+            String dependencyPath = IOUtils.getResourceFileName(IOUtils.getResourceDirectory(path), resource, encoding, fhirContext, versioned);
+            if (visiting.contains(dependencyPath)) {
+                continue;
+            }
+            try {
+                for (Map.Entry<String, IBaseResource> dependency : getLibraryDependencies(dependencyPath, fhirContext, encoding, versioned, visiting).entrySet()) {
+                    dependencies.putIfAbsent(dependency.getKey(), dependency.getValue());
+                }
+            } catch (Exception e) {
+                LogUtils.putException(dependencyPath, e);
+            }
+        }
+        visiting.remove(path);
+
+        dependencies = Collections.unmodifiableMap(dependencies);
+        Map<String, IBaseResource> existing = libraryDependencies.putIfAbsent(key, dependencies);
+        return existing != null ? existing : dependencies;
+    }
+
+    public static void clearLibraryDependencies() {
+        libraryDependencies.clear();
+    }
+
     private UcumService ucumService;
     private List<String> binaryPaths;
     private CqlProcessor cqlProcessor;
     protected boolean versioned;
+    protected Collection<String> changedPaths;
+    protected CqlProcessor.ElmEncodings elmEncodings;
+
+    // The processor of the last refresh, which knows the includes of each library for incremental refreshes
+    private static CqlProcessor lastCqlProcessor;
+    private static List<String> lastBinaryPaths;
 
     /*
     Refreshes generated content in the given library.
@@ -158,10 +245,22 @@ public class LibraryProcessor extends BaseProcessor {
             System.err.println("Could not create UCUM validation service:");
             e.printStackTrace();
         }
-        cqlProcessor = new CqlProcessor(packageManager.getNpmList(), binaryPaths, reader, this, ucumService,
-                packageId, canonicalBase);
+        if (changedPaths != null && lastCqlProcessor != null && binaryPaths.equals(lastBinaryPaths)) {
+            // Only the changed libraries and the libraries that include them are translated and refreshed
+            cqlProcessor = lastCqlProcessor;
+            cqlProcessor.setElmEncodings(elmEncodings);
+            Set<String> invalidatedLibraries = cqlProcessor.execute(changedPaths);
+            sourceLibraries = sourceLibraries.stream().filter(l -> invalidatedLibraries.contains(l.getName())).collect(Collectors.toList());
+        }
+        else {
+            cqlProcessor = new CqlProcessor(packageManager.getNpmList(), binaryPaths, reader, this, ucumService,
+                    packageId, canonicalBase);
+            cqlProcessor.setElmEncodings(elmEncodings);
 
-        cqlProcessor.execute();
+            cqlProcessor.execute();
+        }
+        lastCqlProcessor = cqlProcessor;
+        lastBinaryPaths = binaryPaths;
 
         // For each CQL file, ensure that there is a Library resource with a matching name and version
         for (CqlProcessor.CqlSourceFileInformation fileInfo : cqlProcessor.getAllFileInformation()) {
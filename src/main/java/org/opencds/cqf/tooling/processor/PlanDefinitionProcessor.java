@@ -9,7 +9,6 @@ import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class PlanDefinitionProcessor {
     public static final String ResourcePrefix = "plandefinition-";
@@ -19,96 +18,12 @@ public class PlanDefinitionProcessor {
             Boolean includeTerminology, Boolean includePatientScenarios, Boolean includeVersion, Boolean cdsHooksIg, FhirContext fhirContext, String fhirUri,
             Encoding encoding) {
         
-        HashSet<String> planDefinitionSourcePaths = IOUtils.getPlanDefinitionPaths(fhirContext);
+        ArtifactIndex artifactIndex = IOUtils.getArtifactIndex(fhirContext);
+        List<String> planDefinitionPathLibraryNames = new ArrayList<String>(artifactIndex.getPlanDefinitionNames());
 
-        List<String> planDefinitionPathLibraryNames = new ArrayList<String>();
-        for (String planDefinitionSourcePath : planDefinitionSourcePaths) {
-            String name = FilenameUtils.getBaseName(planDefinitionSourcePath).replace(PlanDefinitionProcessor.ResourcePrefix, "");
-
-            planDefinitionPathLibraryNames.add(name);
-        }
-
-        List<String> bundledPlanDefinitions = new ArrayList<String>();
-        for (String refreshedLibraryName : refreshedLibraryNames) {
-            try {
-                if (!planDefinitionPathLibraryNames.contains(refreshedLibraryName)) {
-                    continue;
-                }
-
-                Map<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-
-                String refreshedLibraryFileName = IOUtils.formatFileName(refreshedLibraryName, encoding, fhirContext);
-                String librarySourcePath;
-                try {
-                    librarySourcePath = IOUtils.getLibraryPathAssociatedWithCqlFileName(refreshedLibraryFileName, fhirContext);
-                } catch (Exception e) {
-                    LogUtils.putException(refreshedLibraryName, e);
-                    continue;
-                } finally {
-                    LogUtils.warn(refreshedLibraryName);
-                }
-                
-                String planDefinitionSourcePath = "";
-                for (String path : planDefinitionSourcePaths) {
-                    if (FilenameUtils.removeExtension(path).endsWith(refreshedLibraryName))
-                    {
-                        planDefinitionSourcePath = path;
-                        break;
-                    }
-                }
-
-                Boolean shouldPersist = ResourceUtils.safeAddResource(planDefinitionSourcePath, resources, fhirContext);
-                shouldPersist = shouldPersist
-                        & ResourceUtils.safeAddResource(librarySourcePath, resources, fhirContext);
-
-                String cqlFileName = IOUtils.formatFileName(refreshedLibraryName, Encoding.CQL, fhirContext);
-                List<String> cqlLibrarySourcePaths = IOUtils.getCqlLibraryPaths().stream()
-                    .filter(path -> path.endsWith(cqlFileName))
-                    .collect(Collectors.toList());
-                String cqlLibrarySourcePath = (cqlLibrarySourcePaths.isEmpty()) ? null : cqlLibrarySourcePaths.get(0);
-                
-                if (includeTerminology) {
-                    boolean result = ValueSetsProcessor.bundleValueSets(cqlLibrarySourcePath, igPath, fhirContext, resources, encoding, includeDependencies, includeVersion);
-                    if (shouldPersist && !result) {
-                        LogUtils.info("PlanDefinitions will not be bundled because ValueSet bundling failed.");
-                    }
-                    shouldPersist = shouldPersist & result;
-                }
-
-                if (includeDependencies) {
-                    boolean result = LibraryProcessor.bundleLibraryDependencies(librarySourcePath, fhirContext, resources, encoding, includeVersion);
-                    if (shouldPersist && !result) {
-                        LogUtils.info("PlanDefinitions will not be bundled because Library Dependency bundling failed.");
-                    }
-                    shouldPersist = shouldPersist & result;
-                }
-
-                if (includePatientScenarios) {
-                    boolean result = TestCaseProcessor.bundleTestCases(igPath, PlanDefinitionTestGroupName, refreshedLibraryName, fhirContext, resources);
-                    if (shouldPersist && !result) {
-                        LogUtils.info("PlanDefinitions will not be bundled because Test Case bundling failed.");
-                    }
-                    shouldPersist = shouldPersist & result;
-                }
-
-                List<String> activityDefinitionPaths =  CDSHooksProcessor.bundleActivityDefinitions(planDefinitionSourcePath, fhirContext, resources, encoding, includeVersion, shouldPersist);
-
-                if (shouldPersist) {
-                    String bundleDestPath = FilenameUtils.concat(FilenameUtils.concat(IGProcessor.getBundlesPath(igPath), PlanDefinitionTestGroupName), refreshedLibraryName);
-                    persistBundle(igPath, bundleDestPath, refreshedLibraryName, encoding, fhirContext, new ArrayList<IBaseResource>(resources.values()), fhirUri);
-                    bundleFiles(igPath, bundleDestPath, refreshedLibraryName, planDefinitionSourcePath, librarySourcePath, fhirContext, encoding, includeTerminology, includeDependencies, includePatientScenarios, includeVersion);
-                    CDSHooksProcessor.addActivityDefinitionFilesToBundle(igPath, bundleDestPath, refreshedLibraryName, activityDefinitionPaths, fhirContext, encoding);
-                    if (cdsHooksIg != null && cdsHooksIg) { 
-                        CDSHooksProcessor.addRequestAndResponseFilesToBundle(igPath, bundleDestPath, refreshedLibraryName);
-                    }
-                    bundledPlanDefinitions.add(refreshedLibraryName);
-                }
-            } catch (Exception e) {
-                LogUtils.putException(refreshedLibraryName, e);
-            } finally {
-                LogUtils.warn(refreshedLibraryName);
-            }
-        }
+        List<String> bundledPlanDefinitions = IGBundleProcessor.bundleArtifacts(refreshedLibraryNames,
+            refreshedLibraryName -> bundlePlanDefinition(refreshedLibraryName, artifactIndex, igPath, includeDependencies, includeTerminology,
+                includePatientScenarios, includeVersion, cdsHooksIg, fhirContext, fhirUri, encoding));
         String message = "\r\n" + bundledPlanDefinitions.size() + " PlanDefinitions successfully bundled:";
         for (String bundledPlanDefinition : bundledPlanDefinitions) {
             message += "\r\n     " + bundledPlanDefinition + " BUNDLED";
@@ -132,12 +47,98 @@ public class PlanDefinitionProcessor {
         LogUtils.info(message);
     }
 
+    private static boolean bundlePlanDefinition(String refreshedLibraryName, ArtifactIndex artifactIndex, String igPath, Boolean includeDependencies,
+            Boolean includeTerminology, Boolean includePatientScenarios, Boolean includeVersion, Boolean cdsHooksIg, FhirContext fhirContext, String fhirUri,
+            Encoding encoding) {
+        try {
+            if (!artifactIndex.getPlanDefinitionNames().contains(refreshedLibraryName)) {
+                return false;
+            }
+
+            Map<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
+
+            String refreshedLibraryFileName = IOUtils.formatFileName(refreshedLibraryName, encoding, fhirContext);
+            String librarySourcePath;
+            try {
+                librarySourcePath = IOUtils.getLibraryPathAssociatedWithCqlFileName(refreshedLibraryFileName, fhirContext);
+            } catch (Exception e) {
+                LogUtils.putException(refreshedLibraryName, e);
+                return false;
+            } finally {
+                LogUtils.warn(refreshedLibraryName);
+            }
+            
+            String planDefinitionSourcePath = artifactIndex.getPlanDefinitionPath(refreshedLibraryName, encoding);
+
+            Boolean shouldPersist = ResourceUtils.safeAddResource(planDefinitionSourcePath, resources, fhirContext);
+            shouldPersist = shouldPersist
+                    & ResourceUtils.safeAddResource(librarySourcePath, resources, fhirContext);
+
+            String cqlLibrarySourcePath = artifactIndex.getCqlPath(refreshedLibraryName);
+            
+            if (includeTerminology) {
+                boolean result = ValueSetsProcessor.bundleValueSets(cqlLibrarySourcePath, igPath, fhirContext, resources, encoding, includeDependencies, includeVersion);
+                if (shouldPersist && !result) {
+                    LogUtils.info("PlanDefinitions will not be bundled because ValueSet bundling failed.");
+                }
+                shouldPersist = shouldPersist & result;
+            }
+
+            if (includeDependencies) {
+                boolean result = LibraryProcessor.bundleLibraryDependencies(librarySourcePath, fhirContext, resources, encoding, includeVersion);
+                if (shouldPersist && !result) {
+                    LogUtils.info("PlanDefinitions will not be bundled because Library Dependency bundling failed.");
+                }
+                shouldPersist = shouldPersist & result;
+            }
+
+            if (includePatientScenarios) {
+                boolean result = TestCaseProcessor.bundleTestCases(igPath, PlanDefinitionTestGroupName, refreshedLibraryName, fhirContext, resources);
+                if (shouldPersist && !result) {
+                    LogUtils.info("PlanDefinitions will not be bundled because Test Case bundling failed.");
+                }
+                shouldPersist = shouldPersist & result;
+            }
+
+            List<String> activityDefinitionPaths =  CDSHooksProcessor.bundleActivityDefinitions(planDefinitionSourcePath, fhirContext, resources, encoding, includeVersion, shouldPersist);
+
+            if (shouldPersist) {
+                String bundleDestPath = FilenameUtils.concat(FilenameUtils.concat(IGProcessor.getBundlesPath(igPath), PlanDefinitionTestGroupName), refreshedLibraryName);
+                try {
+                    persistBundle(igPath, bundleDestPath, refreshedLibraryName, encoding, fhirContext, new ArrayList<IBaseResource>(resources.values()), fhirUri);
+                    if (IGBundleProcessor.getPackageWriter() == null) {
+                        bundleFiles(igPath, bundleDestPath, refreshedLibraryName, planDefinitionSourcePath, librarySourcePath, fhirContext, encoding, includeTerminology, includeDependencies, includePatientScenarios, includeVersion);
+                        CDSHooksProcessor.addActivityDefinitionFilesToBundle(igPath, bundleDestPath, refreshedLibraryName, activityDefinitionPaths, fhirContext, encoding);
+                        if (cdsHooksIg != null && cdsHooksIg) { 
+                            CDSHooksProcessor.addRequestAndResponseFilesToBundle(igPath, bundleDestPath, refreshedLibraryName);
+                        }
+                        IOUtils.removeUnwrittenFiles(bundleDestPath);
+                    }
+                }
+                finally {
+                    IOUtils.releaseDirectory(bundleDestPath);
+                }
+                return true;
+            }
+        } catch (Exception e) {
+            LogUtils.putException(refreshedLibraryName, e);
+        } finally {
+            LogUtils.warn(refreshedLibraryName);
+        }
+        return false;
+    }
+
     private static void persistBundle(String igPath, String bundleDestPath, String libraryName, Encoding encoding, FhirContext fhirContext, List<IBaseResource> resources, String fhirUri) {
-        IOUtils.initializeDirectory(bundleDestPath);
-        Object bundle = BundleUtils.bundleArtifacts(libraryName, resources, fhirContext);
-        IOUtils.writeBundle(bundle, bundleDestPath, encoding, fhirContext);
+        if (IGBundleProcessor.getPackageWriter() != null) {
+            IGBundleProcessor.addToPackage(resources);
+        }
+        else {
+            IOUtils.prepareDirectory(bundleDestPath);
+            IOUtils.writeBundle(libraryName, resources, bundleDestPath, encoding, fhirContext);
+        }
 
         if (fhirUri != null && !fhirUri.equals("")) {
+            Object bundle = BundleUtils.bundleArtifacts(libraryName, resources, fhirContext);
             try {
                 HttpClientUtils.post(fhirUri, (IBaseResource) bundle, encoding, fhirContext);
             } catch (IOException e) {
@@ -151,16 +152,13 @@ public class PlanDefinitionProcessor {
 
     private static void bundleFiles(String igPath, String bundleDestPath, String libraryName, String resourceFocusSourcePath, String librarySourcePath, FhirContext fhirContext, Encoding encoding, Boolean includeTerminology, Boolean includeDependencies, Boolean includePatientScenarios, Boolean includeVersion) {
         String bundleDestFilesPath = FilenameUtils.concat(bundleDestPath, libraryName + "-" + IGBundleProcessor.bundleFilesPathElement);
-        IOUtils.initializeDirectory(bundleDestFilesPath);
+        IOUtils.prepareDirectory(bundleDestFilesPath);
 
         IOUtils.copyFile(resourceFocusSourcePath, FilenameUtils.concat(bundleDestFilesPath, FilenameUtils.getName(resourceFocusSourcePath)));
         IOUtils.copyFile(librarySourcePath, FilenameUtils.concat(bundleDestFilesPath, FilenameUtils.getName(librarySourcePath)));
 
         String cqlFileName = IOUtils.formatFileName(libraryName, Encoding.CQL, fhirContext);
-        List<String> cqlLibrarySourcePaths = IOUtils.getCqlLibraryPaths().stream()
-            .filter(path -> path.endsWith(cqlFileName))
-            .collect(Collectors.toList());
-        String cqlLibrarySourcePath = (cqlLibrarySourcePaths.isEmpty()) ? null : cqlLibrarySourcePaths.get(0);
+        String cqlLibrarySourcePath = IOUtils.getArtifactIndex(fhirContext).getCqlPath(libraryName);
         String cqlDestPath = FilenameUtils.concat(bundleDestFilesPath, cqlFileName);
         IOUtils.copyFile(cqlLibrarySourcePath, cqlDestPath);
 
@@ -168,8 +166,7 @@ public class PlanDefinitionProcessor {
             try {     
                 Map<String, IBaseResource> valuesets = ResourceUtils.getDepValueSetResources(cqlLibrarySourcePath, igPath, fhirContext, includeDependencies, includeVersion);      
                 if (!valuesets.isEmpty()) {
-                    Object bundle = BundleUtils.bundleArtifacts(ValueSetsProcessor.getId(libraryName), new ArrayList<IBaseResource>(valuesets.values()), fhirContext);
-                    IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);  
+                    IOUtils.writeBundle(ValueSetsProcessor.getId(libraryName), new ArrayList<IBaseResource>(valuesets.values()), bundleDestFilesPath, encoding, fhirContext);
                 }  
             }  catch (Exception e) {
                 LogUtils.putException(libraryName, e.getMessage());
@@ -177,11 +174,10 @@ public class PlanDefinitionProcessor {
         }
         
         if (includeDependencies) {
-            Map<String, IBaseResource> depLibraries = ResourceUtils.getDepLibraryResources(librarySourcePath, fhirContext, encoding);
+            Map<String, IBaseResource> depLibraries = LibraryProcessor.getLibraryDependencies(librarySourcePath, fhirContext, encoding, includeVersion);
             if (!depLibraries.isEmpty()) {
                 String depLibrariesID = "library-deps-" + libraryName;
-                Object bundle = BundleUtils.bundleArtifacts(depLibrariesID, new ArrayList<IBaseResource>(depLibraries.values()), fhirContext);            
-                IOUtils.writeBundle(bundle, bundleDestFilesPath, encoding, fhirContext);  
+                IOUtils.writeBundle(depLibrariesID, new ArrayList<IBaseResource>(depLibraries.values()), bundleDestFilesPath, encoding, fhirContext);
             }        
         }
 
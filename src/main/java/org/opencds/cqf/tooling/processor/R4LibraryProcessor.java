@@ -2,8 +2,6 @@ package org.opencds.cqf.tooling.processor;
 
 import ca.uhn.fhir.context.FhirContext;
 import org.cqframework.cql.cql2elm.CqlTranslator;
-import org.cqframework.cql.cql2elm.LibraryManager;
-import org.cqframework.cql.cql2elm.ModelManager;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
 import org.hl7.elm.r1.IncludeDef;
 import org.hl7.elm.r1.Retrieve;
@@ -13,7 +11,7 @@ import org.hl7.fhir.convertors.VersionConvertor_40_50;
 import org.hl7.fhir.r4.formats.FormatUtilities;
 import org.hl7.fhir.r4.model.*;
 import org.opencds.cqf.tooling.common.r4.CqfmSoftwareSystemHelper;
-import org.opencds.cqf.tooling.library.GenericLibrarySourceProvider;
+import org.opencds.cqf.tooling.library.CompiledLibraryRegistry;
 import org.opencds.cqf.tooling.parameter.RefreshLibraryParameters;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
@@ -108,6 +106,8 @@ public class R4LibraryProcessor extends LibraryProcessor {
         fhirContext = params.fhirContext;
         encoding = params.encoding;
         versioned = params.versioned;
+        changedPaths = params.changedPaths;
+        elmEncodings = params.elmEncodings;
 
         this.cqfmHelper = new CqfmSoftwareSystemHelper(rootDir);
 
@@ -327,11 +327,6 @@ public class R4LibraryProcessor extends LibraryProcessor {
     }
 
     private static CqlTranslator getTranslator(String cqlContentPath) {
-        String cqlDirPath = IOUtils.getParentDirectoryPath(cqlContentPath);
-        ModelManager modelManager = new ModelManager();
-        GenericLibrarySourceProvider sourceProvider = new GenericLibrarySourceProvider(cqlDirPath);
-        LibraryManager libraryManager = new LibraryManager(modelManager);
-        libraryManager.getLibrarySourceLoader().registerProvider(sourceProvider);
-        return IOUtils.translate(cqlContentPath, modelManager, libraryManager);
+        return CompiledLibraryRegistry.translate(cqlContentPath);
     }
 }
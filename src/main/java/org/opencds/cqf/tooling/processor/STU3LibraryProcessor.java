@@ -2,8 +2,6 @@ package org.opencds.cqf.tooling.processor;
 
 import ca.uhn.fhir.context.FhirContext;
 import org.cqframework.cql.cql2elm.CqlTranslator;
-import org.cqframework.cql.cql2elm.LibraryManager;
-import org.cqframework.cql.cql2elm.ModelManager;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
 import org.hl7.elm.r1.IncludeDef;
 import org.hl7.elm.r1.Retrieve;
@@ -12,7 +10,7 @@ import org.hl7.elm.r1.ValueSetRef;
 import org.hl7.fhir.convertors.VersionConvertor_30_50;
 import org.hl7.fhir.dstu3.model.*;
 import org.opencds.cqf.tooling.common.stu3.CqfmSoftwareSystemHelper;
-import org.opencds.cqf.tooling.library.GenericLibrarySourceProvider;
+import org.opencds.cqf.tooling.library.CompiledLibraryRegistry;
 import org.opencds.cqf.tooling.parameter.RefreshLibraryParameters;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
@@ -86,6 +84,8 @@ public class STU3LibraryProcessor extends LibraryProcessor {
         fhirContext = params.fhirContext;
         encoding = params.encoding;
         versioned = params.versioned;
+        changedPaths = params.changedPaths;
+        elmEncodings = params.elmEncodings;
 
         this.cqfmHelper = new CqfmSoftwareSystemHelper(rootDir);
 
@@ -294,11 +294,6 @@ public class STU3LibraryProcessor extends LibraryProcessor {
     }
 
     private static CqlTranslator getTranslator(String cqlContentPath) {
-        String cqlDirPath = IOUtils.getParentDirectoryPath(cqlContentPath);
-        ModelManager modelManager = new ModelManager();
-        GenericLibrarySourceProvider sourceProvider = new GenericLibrarySourceProvider(cqlDirPath);
-        LibraryManager libraryManager = new LibraryManager(modelManager);
-        libraryManager.getLibrarySourceLoader().registerProvider(sourceProvider);
-        return IOUtils.translate(cqlContentPath, modelManager, libraryManager);
+        return CompiledLibraryRegistry.translate(cqlContentPath);
     }
 }
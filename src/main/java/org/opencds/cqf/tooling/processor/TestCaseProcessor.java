@@ -3,7 +3,6 @@ package org.opencds.cqf.tooling.processor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 import com.sun.istack.Nullable;
 
@@ -30,21 +29,25 @@ public class TestCaseProcessor
         for (String group : resourceTypeTestGroups) {
             List<String> testArtifactPaths = IOUtils.getDirectoryPaths(group, false);
             for (String testArtifactPath : testArtifactPaths) {
-                List<String> testCasePaths = IOUtils.getDirectoryPaths(testArtifactPath, false);
-                for (String testCasePath : testCasePaths) {
-                    try {
-                        List<String> paths = IOUtils.getFilePaths(testCasePath, true);
-                        List<IBaseResource> resources = IOUtils.readResources(paths, fhirContext);
-                        ensureIds(testCasePath, resources);
-                        Object bundle = BundleUtils.bundleArtifacts(getId(FilenameUtils.getName(testCasePath)), resources, fhirContext);
-                        IOUtils.writeBundle(bundle, testArtifactPath, encoding, fhirContext);
-                    } catch (Exception e) {
-                        LogUtils.putException(testCasePath, e);
-                    }
-                    finally {
-                        LogUtils.warn(testCasePath);
-                    }
-                }
+                refreshTestArtifact(testArtifactPath, encoding, fhirContext);
+            }
+        }
+    }
+
+    // Writes a bundle of each test case of the artifact into the artifact's test directory
+    public void refreshTestArtifact(String testArtifactPath, IOUtils.Encoding encoding, FhirContext fhirContext) {
+        List<String> testCasePaths = IOUtils.getDirectoryPaths(testArtifactPath, false);
+        for (String testCasePath : testCasePaths) {
+            try {
+                List<String> paths = IOUtils.getFilePaths(testCasePath, true);
+                List<IBaseResource> resources = IOUtils.readResources(paths, fhirContext);
+                ensureIds(testCasePath, resources);
+                IOUtils.writeBundle(getId(FilenameUtils.getName(testCasePath)), resources, testArtifactPath, encoding, fhirContext);
+            } catch (Exception e) {
+                LogUtils.putException(testCasePath, e);
+            }
+            finally {
+                LogUtils.warn(testCasePath);
             }
         }
     }
@@ -60,11 +63,15 @@ public class TestCaseProcessor
         return resources; 
     }
 
+    // Ids are set on copies, since the resources read are shared through the resource cache
     private static List<IBaseResource> ensureIds(String baseId, List<IBaseResource> resources) {
-        for (IBaseResource resource : resources) {
+        for (int i = 0; i < resources.size(); i++) {
+            IBaseResource resource = resources.get(i);
             if (resource.getIdElement().getIdPart() == null || resource.getIdElement().getIdPart().equals("")) {
+                resource = ResourceUtils.copy(resource);
                 ResourceUtils.setIgId(FilenameUtils.getName(baseId), resource, false);
                 resource.setId(resource.getClass().getSimpleName() + "/" + resource.getIdElement().getIdPart());
+                resources.set(i, resource);
             }
         }
         return resources;
@@ -112,10 +119,7 @@ public class TestCaseProcessor
             for (String testCaseDirectory : testCaseDirectories) {
                 List<String> testContentPaths = IOUtils.getFilePaths(testCaseDirectory, false);
                 for (String testContentPath : testContentPaths) {
-                    Optional<String> matchingMeasureReportPath = IOUtils.getMeasureReportPaths(fhirContext).stream()
-                        .filter(path -> path.equals(testContentPath))
-                        .findFirst();
-                    if (matchingMeasureReportPath.isPresent()) {
+                    if (IOUtils.getMeasureReportPaths(fhirContext).contains(testContentPath)) {
                         IBaseResource measureReport = IOUtils.readResource(testContentPath, fhirContext);
                         if (!measureReport.getIdElement().getIdPart().startsWith("measurereport") || !measureReport.getIdElement().getIdPart().endsWith("-expectedresults")) {
                             Object measureReportStatus = ResourceUtils.resolveProperty(measureReport, "status", fhirContext);
@@ -0,0 +1,219 @@
+package org.opencds.cqf.tooling.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * The time and memory spent translating each library of a CqlProcessor execution, for finding expensive libraries
+ * and comparing tooling versions.
+ *
+ * Translation covers parsing and semantic analysis, which the translator performs in one call, including the
+ * translation of any included library that was not already translated. Allocated bytes are those allocated by the
+ * translating thread, and are -1 where the JVM does not report them.
+ */
+public class TranslationMetrics {
+
+    public static final String REPORT_NAME = "cql-translation-report";
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    public static class LibraryMetrics {
+        private String library;
+        private String file;
+        private boolean restored;
+        private boolean failed;
+        private long translationMillis;
+        private long serializationMillis;
+        private long extractionMillis;
+        private long dataRequirementsMillis;
+        private long totalMillis;
+        private long allocatedBytes = -1;
+
+        private transient long start = System.nanoTime();
+        private transient long phaseStart = start;
+        private transient long startAllocatedBytes = getAllocatedBytes();
+
+        private LibraryMetrics(File file) {
+            this.file = file.getName();
+        }
+
+        // Milliseconds since the previous phase ended
+        private long phase() {
+            long now = System.nanoTime();
+            long millis = (now - phaseStart) / 1000000;
+            phaseStart = now;
+            return millis;
+        }
+
+        public void endTranslation() {
+            translationMillis = phase();
+        }
+
+        public void endSerialization() {
+            serializationMillis = phase();
+        }
+
+        public void endExtraction() {
+            extractionMillis = phase();
+        }
+
+        public void endDataRequirements() {
+            dataRequirementsMillis = phase();
+        }
+
+        public void setLibrary(String library) {
+            this.library = library;
+        }
+
+        public void setRestored(boolean restored) {
+            this.restored = restored;
+        }
+
+        public void setFailed(boolean failed) {
+            this.failed = failed;
+        }
+
+        private void end() {
+            totalMillis = (System.nanoTime() - start) / 1000000;
+            long allocated = getAllocatedBytes();
+            allocatedBytes = allocated >= 0 && startAllocatedBytes >= 0 ? allocated - startAllocatedBytes : -1;
+        }
+
+        public String getLibrary() {
+            return library;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public boolean isRestored() {
+            return restored;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        public long getTranslationMillis() {
+            return translationMillis;
+        }
+
+        public long getSerializationMillis() {
+            return serializationMillis;
+        }
+
+        public long getExtractionMillis() {
+            return extractionMillis;
+        }
+
+        public long getDataRequirementsMillis() {
+            return dataRequirementsMillis;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<LibraryMetrics> libraries = new ConcurrentLinkedQueue<>();
+
+    private static long getAllocatedBytes() {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Starts measuring the translation of a file on the current thread
+     */
+    public LibraryMetrics start(File file) {
+        return new LibraryMetrics(file);
+    }
+
+    /**
+     * Records the measurements of a translation; called on the thread that started it
+     */
+    public void end(LibraryMetrics metrics) {
+        metrics.end();
+        libraries.add(metrics);
+    }
+
+    public void clear() {
+        libraries.clear();
+    }
+
+    /**
+     * @return The measurements, most expensive first
+     */
+    public List<LibraryMetrics> getLibraries() {
+        List<LibraryMetrics> sorted = new ArrayList<>(libraries);
+        sorted.sort(Comparator.comparingLong(LibraryMetrics::getTotalMillis).reversed());
+        return sorted;
+    }
+
+    /**
+     * @return One line per library, most expensive first, at most limit lines
+     */
+    public List<String> getSummary(int limit) {
+        List<String> summary = new ArrayList<>();
+        for (LibraryMetrics metrics : getLibraries()) {
+            if (summary.size() == limit) {
+                break;
+            }
+            summary.add(String.format("%s: %d ms (translation %d ms, serialization %d ms, extraction %d ms, data requirements %d ms)%s%s",
+                metrics.library != null ? metrics.library : metrics.file, metrics.totalMillis, metrics.translationMillis,
+                metrics.serializationMillis, metrics.extractionMillis, metrics.dataRequirementsMillis,
+                metrics.allocatedBytes >= 0 ? String.format(", %d KB allocated", metrics.allocatedBytes / 1024) : "",
+                metrics.restored ? ", restored from cache" : metrics.failed ? ", failed" : ""));
+        }
+        return summary;
+    }
+
+    /**
+     * Writes the measurements to [name].json and [name].csv in the directory
+     */
+    public void writeReport(String directory) throws IOException {
+        List<LibraryMetrics> sorted = getLibraries();
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = Files.newBufferedWriter(new File(directory, REPORT_NAME + ".json").toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(sorted, writer);
+        }
+
+        try (Writer writer = Files.newBufferedWriter(new File(directory, REPORT_NAME + ".csv").toPath(), StandardCharsets.UTF_8)) {
+            writer.write("library,file,restored,failed,translationMillis,serializationMillis,extractionMillis,dataRequirementsMillis,totalMillis,allocatedBytes\n");
+            for (LibraryMetrics metrics : sorted) {
+                writer.write(String.format("%s,%s,%s,%s,%d,%d,%d,%d,%d,%d\n", csv(metrics.library), csv(metrics.file), metrics.restored,
+                    metrics.failed, metrics.translationMillis, metrics.serializationMillis, metrics.extractionMillis,
+                    metrics.dataRequirementsMillis, metrics.totalMillis, metrics.allocatedBytes));
+            }
+        }
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+    }
+}
@@ -6,7 +6,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
+import org.opencds.cqf.tooling.processor.CqlProcessor;
 import org.opencds.cqf.tooling.utilities.ArgUtils;
+import org.opencds.cqf.tooling.utilities.FileCopier;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
 import joptsimple.OptionParser;
@@ -32,6 +34,17 @@ public class RefreshIGArgumentProcessor {
     public static final String[] FHIR_URI_OPTIONS = {"fs", "fhir-uri"};
     public static final String[] MEASURE_TO_REFRESH_PATH = {"mtrp", "measure-to-refresh-path"};
     public static final String[] RESOURCE_PATH_OPTIONS = {"rp", "resourcepath"};
+    public static final String[] RESOURCE_CACHE_SIZE_OPTIONS = {"rcs", "resource-cache-size"};
+    public static final String[] ELM_CACHE_OPTIONS = {"ec", "elm-cache"};
+    public static final String[] RESOURCE_READER_THREADS_OPTIONS = {"rt", "resource-reader-threads"};
+    public static final String[] COPY_MODE_OPTIONS = {"cm", "copy-mode"};
+    public static final String[] WATCH_OPTIONS = {"w", "watch"};
+    public static final String[] TRANSLATOR_THREADS_OPTIONS = {"tt", "translator-threads"};
+    public static final String[] SPILL_ELM_OPTIONS = {"se", "spill-elm"};
+    public static final String[] ELM_ENCODINGS_OPTIONS = {"ee", "elm-encodings"};
+    public static final String[] TRANSLATION_REPORT_OPTIONS = {"tr", "translation-report"};
+    public static final String[] BUNDLE_THREADS_OPTIONS = {"bt", "bundle-threads"};
+    public static final String[] NPM_PACKAGE_OPTIONS = {"np", "npm-package"};
 
     public OptionParser build() {
         OptionParser parser = new OptionParser();
@@ -43,6 +56,16 @@ public class RefreshIGArgumentProcessor {
         OptionSpecBuilder igOutputEncodingBuilder = parser.acceptsAll(asList(IG_OUTPUT_ENCODING), "If omitted, output will be generated using JSON encoding.");
         OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"If omitted the final bundle will not be loaded to a FHIR server.");
         OptionSpecBuilder measureToRefreshPathBuilder = parser.acceptsAll(asList(MEASURE_TO_REFRESH_PATH), "Path to Measure to refresh.");
+        OptionSpecBuilder elmCacheBuilder = parser.acceptsAll(asList(ELM_CACHE_OPTIONS), "If omitted CQL will be translated on every run. If no directory is given .cqf-cache under the root directory is used.");
+        OptionSpecBuilder resourceReaderThreadsBuilder = parser.acceptsAll(asList(RESOURCE_READER_THREADS_OPTIONS), "If omitted resource files such as test cases will be read on a single thread.");
+        OptionSpecBuilder copyModeBuilder = parser.acceptsAll(asList(COPY_MODE_OPTIONS), "If omitted files will be copied into bundle file directories. 'link' hard links them where possible, 'skip' leaves copied and written files that are already identical.");
+        OptionSpecBuilder translatorThreadsBuilder = parser.acceptsAll(asList(TRANSLATOR_THREADS_OPTIONS), "If omitted CQL files will be translated one at a time.");
+        OptionSpecBuilder spillElmBuilder = parser.acceptsAll(asList(SPILL_ELM_OPTIONS), "If omitted translated ELM is kept in memory until the libraries are refreshed. If no directory is given a temporary directory is used.");
+        OptionSpecBuilder elmEncodingsBuilder = parser.acceptsAll(asList(ELM_ENCODINGS_OPTIONS), "If omitted ELM XML is produced, and ELM JSON if cql-options.json requests it.");
+        OptionSpecBuilder translationReportBuilder = parser.acceptsAll(asList(TRANSLATION_REPORT_OPTIONS), "If omitted translation times are not reported. If no directory is given the report is written to the bundles directory.");
+        OptionSpecBuilder bundleThreadsBuilder = parser.acceptsAll(asList(BUNDLE_THREADS_OPTIONS), "If omitted measures and plan definitions will be bundled one at a time.");
+        OptionSpecBuilder npmPackageBuilder = parser.acceptsAll(asList(NPM_PACKAGE_OPTIONS), "If omitted bundles are written as files under the bundles directory. Otherwise bundled resources are written to an NPM package, by default bundles/package.tgz.");
+        OptionSpecBuilder resourceCacheSizeBuilder = parser.acceptsAll(asList(RESOURCE_CACHE_SIZE_OPTIONS), "If omitted parsed resources from up to 256 MB of files will be cached.");
 
         OptionSpec<String> ini = iniBuilder.withOptionalArg().describedAs("Path to the IG ini file");
         OptionSpec<String> rootDir = rootDirBuilder.withOptionalArg().describedAs("Root directory of the IG");
@@ -50,6 +73,16 @@ public class RefreshIGArgumentProcessor {
         OptionSpec<String> resourcePath = resourcePathBuilder.withOptionalArg().describedAs("directory of resources");
         OptionSpec<String> igOutputEncoding = igOutputEncodingBuilder.withOptionalArg().describedAs("desired output encoding for resources");
         OptionSpec<String> measureToRefreshPath = measureToRefreshPathBuilder.withOptionalArg().describedAs("Path to Measure to refresh.");
+        OptionSpec<String> elmCache = elmCacheBuilder.withOptionalArg().describedAs("directory of the persistent ELM cache");
+        OptionSpec<String> resourceReaderThreads = resourceReaderThreadsBuilder.withRequiredArg().describedAs("number of threads used to read resource files");
+        OptionSpec<String> copyMode = copyModeBuilder.withRequiredArg().describedAs("copy, link or skip");
+        OptionSpec<String> translatorThreads = translatorThreadsBuilder.withRequiredArg().describedAs("number of threads used to translate CQL files");
+        OptionSpec<String> spillElm = spillElmBuilder.withOptionalArg().describedAs("directory in which translated ELM is kept");
+        OptionSpec<String> elmEncodings = elmEncodingsBuilder.withRequiredArg().describedAs("xml, json, both or none");
+        OptionSpec<String> translationReport = translationReportBuilder.withOptionalArg().describedAs("directory in which the translation report is written");
+        OptionSpec<String> bundleThreads = bundleThreadsBuilder.withRequiredArg().describedAs("number of threads used to bundle measures and plan definitions");
+        OptionSpec<String> npmPackage = npmPackageBuilder.withOptionalArg().describedAs("path of the package file");
+        OptionSpec<String> resourceCacheSize = resourceCacheSizeBuilder.withRequiredArg().describedAs("maximum total size, in MB, of the files whose parsed resources are cached");
 
         //TODO: FHIR user / password (and other auth options)
         OptionSpec<String> fhirUri = fhirUriBuilder.withOptionalArg().describedAs("uri of fhir server");  
@@ -61,6 +94,7 @@ public class RefreshIGArgumentProcessor {
         parser.acceptsAll(asList(INCLUDE_PATIENT_SCENARIOS_OPTIONS),"If omitted patient scenario information will not be packaged.");
         parser.acceptsAll(asList(VERSIONED_OPTIONS),"If omitted resources must be uniquely named.");
         parser.acceptsAll(asList(CDS_HOOKS_OPTIONS),"If omitted defaulted to non cds-hooks ig.");
+        parser.acceptsAll(asList(WATCH_OPTIONS),"If omitted the ig is refreshed once. Otherwise changed content is refreshed until the process is stopped.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -92,8 +126,59 @@ public class RefreshIGArgumentProcessor {
         Boolean includePatientScenarios = options.has(INCLUDE_PATIENT_SCENARIOS_OPTIONS[0]);
         Boolean versioned = options.has(VERSIONED_OPTIONS[0]);
         Boolean cdsHooksIg = options.has(CDS_HOOKS_OPTIONS[0]);
+        Boolean watch = options.has(WATCH_OPTIONS[0]);
         String fhirUri = (String)options.valueOf(FHIR_URI_OPTIONS[0]);
         String measureToRefreshPath = (String)options.valueOf(MEASURE_TO_REFRESH_PATH[0]);
+        String resourceCacheSize = (String)options.valueOf(RESOURCE_CACHE_SIZE_OPTIONS[0]);
+        Boolean useElmCache = options.has(ELM_CACHE_OPTIONS[0]);
+        String elmCacheDir = (String)options.valueOf(ELM_CACHE_OPTIONS[0]);
+        Boolean spillElm = options.has(SPILL_ELM_OPTIONS[0]);
+        String elmSpillDir = (String)options.valueOf(SPILL_ELM_OPTIONS[0]);
+        CqlProcessor.ElmEncodings elmEncodings = CqlProcessor.ElmEncodings.parse((String)options.valueOf(ELM_ENCODINGS_OPTIONS[0]));
+        Boolean translationReport = options.has(TRANSLATION_REPORT_OPTIONS[0]);
+        String translationReportDir = (String)options.valueOf(TRANSLATION_REPORT_OPTIONS[0]);
+        String resourceReaderThreads = (String)options.valueOf(RESOURCE_READER_THREADS_OPTIONS[0]);
+        Integer resourceReaderThreadCount = null;
+        if (resourceReaderThreads != null) {
+            try {
+                resourceReaderThreadCount = Integer.parseInt(resourceReaderThreads.trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid resource reader thread count: " + resourceReaderThreads);
+            }
+        }
+        String translatorThreads = (String)options.valueOf(TRANSLATOR_THREADS_OPTIONS[0]);
+        Integer translatorThreadCount = null;
+        if (translatorThreads != null) {
+            try {
+                translatorThreadCount = Integer.parseInt(translatorThreads.trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid translator thread count: " + translatorThreads);
+            }
+        }
+        Boolean npmPackage = options.has(NPM_PACKAGE_OPTIONS[0]);
+        String npmPackagePath = (String)options.valueOf(NPM_PACKAGE_OPTIONS[0]);
+        String bundleThreads = (String)options.valueOf(BUNDLE_THREADS_OPTIONS[0]);
+        Integer bundleThreadCount = null;
+        if (bundleThreads != null) {
+            try {
+                bundleThreadCount = Integer.parseInt(bundleThreads.trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid bundle thread count: " + bundleThreads);
+            }
+        }
+        FileCopier.Mode copyMode = FileCopier.Mode.parse((String)options.valueOf(COPY_MODE_OPTIONS[0]));
+        Long resourceCacheMaximumWeight = null;
+        if (resourceCacheSize != null) {
+            try {
+                resourceCacheMaximumWeight = Long.parseLong(resourceCacheSize.trim()) * 1024 * 1024;
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid resource cache size: " + resourceCacheSize);
+            }
+        }
 
         ArrayList<String> paths = new ArrayList<String>();
         if (resourcePaths != null && !resourcePaths.isEmpty()) {
@@ -114,6 +199,21 @@ public class RefreshIGArgumentProcessor {
         ip.resourceDirs = paths;
         ip.fhirUri = fhirUri;
         ip.measureToRefreshPath = measureToRefreshPath;
+        ip.resourceCacheMaximumWeight = resourceCacheMaximumWeight;
+        ip.resourceReaderThreads = resourceReaderThreadCount;
+        ip.copyMode = copyMode;
+        ip.useElmCache = useElmCache;
+        ip.elmCacheDir = elmCacheDir;
+        ip.watch = watch;
+        ip.translatorThreads = translatorThreadCount;
+        ip.spillElm = spillElm;
+        ip.elmSpillDir = elmSpillDir;
+        ip.elmEncodings = elmEncodings;
+        ip.translationReport = translationReport;
+        ip.translationReportDir = translationReportDir;
+        ip.bundleThreads = bundleThreadCount;
+        ip.npmPackage = npmPackage;
+        ip.npmPackagePath = npmPackagePath;
        
         return ip;
     }
@@ -0,0 +1,109 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FilenameUtils;
+import org.opencds.cqf.tooling.processor.LibraryProcessor;
+import org.opencds.cqf.tooling.processor.MeasureProcessor;
+import org.opencds.cqf.tooling.processor.PlanDefinitionProcessor;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Index of the CQL, Library, Measure and PlanDefinition files of an IG by artifact name.
+ *
+ * The artifact name is the file base name without the resource type prefix, so "library-Example.json",
+ * "measure-Example.xml" and "Example.cql" are all indexed under "Example". Where both encodings of a resource
+ * exist, lookups prefer the requested encoding.
+ */
+public class ArtifactIndex {
+
+    private final FhirContext fhirContext;
+    private final Map<String, List<String>> cqlPaths;
+    private final Map<String, List<String>> libraryPaths;
+    private final Map<String, List<String>> measurePaths;
+    private final Map<String, List<String>> planDefinitionPaths;
+
+    public ArtifactIndex(FhirContext fhirContext, Collection<String> cqlPaths, Collection<String> libraryPaths,
+            Collection<String> measurePaths, Collection<String> planDefinitionPaths) {
+        this.fhirContext = fhirContext;
+        this.cqlPaths = index(cqlPaths, "");
+        this.libraryPaths = index(libraryPaths, LibraryProcessor.ResourcePrefix);
+        this.measurePaths = index(measurePaths, MeasureProcessor.ResourcePrefix);
+        this.planDefinitionPaths = index(planDefinitionPaths, PlanDefinitionProcessor.ResourcePrefix);
+    }
+
+    public FhirContext getFhirContext() {
+        return fhirContext;
+    }
+
+    public static ArtifactIndex build(FhirContext fhirContext) {
+        return new ArtifactIndex(fhirContext, IOUtils.getCqlLibraryPaths(), IOUtils.getLibraryPaths(fhirContext),
+            IOUtils.getMeasurePaths(fhirContext), IOUtils.getPlanDefinitionPaths(fhirContext));
+    }
+
+    private static Map<String, List<String>> index(Collection<String> paths, String prefix) {
+        Map<String, List<String>> index = new HashMap<String, List<String>>();
+        // Sorted so the choice between duplicate names does not depend on directory walk order
+        for (String path : new TreeSet<String>(paths)) {
+            index.computeIfAbsent(getArtifactName(path, prefix), k -> new ArrayList<String>()).add(path);
+        }
+        return index;
+    }
+
+    public static String getArtifactName(String path, String prefix) {
+        String name = FilenameUtils.getBaseName(path);
+        return name.startsWith(prefix) ? name.substring(prefix.length()) : name;
+    }
+
+    // Library names such as "Example-FHIR4" are stored in files named "Example_FHIR4"
+    private String getKey(String name) {
+        return FilenameUtils.getBaseName(IOUtils.formatFileName(name, IOUtils.Encoding.CQL, fhirContext));
+    }
+
+    private String select(Map<String, List<String>> index, String name, IOUtils.Encoding preferredEncoding) {
+        List<String> paths = index.get(getKey(name));
+        if (paths == null || paths.isEmpty()) {
+            return null;
+        }
+
+        if (preferredEncoding != null) {
+            for (String path : paths) {
+                if (IOUtils.getEncoding(path) == preferredEncoding) {
+                    return path;
+                }
+            }
+        }
+        return paths.get(0);
+    }
+
+    public String getCqlPath(String name) {
+        return select(cqlPaths, name, IOUtils.Encoding.CQL);
+    }
+
+    public String getLibraryPath(String name, IOUtils.Encoding preferredEncoding) {
+        return select(libraryPaths, name, preferredEncoding);
+    }
+
+    public String getMeasurePath(String name, IOUtils.Encoding preferredEncoding) {
+        return select(measurePaths, name, preferredEncoding);
+    }
+
+    public String getPlanDefinitionPath(String name, IOUtils.Encoding preferredEncoding) {
+        return select(planDefinitionPaths, name, preferredEncoding);
+    }
+
+    public Set<String> getMeasureNames() {
+        return measurePaths.keySet();
+    }
+
+    public Set<String> getPlanDefinitionNames() {
+        return planDefinitionPaths.keySet();
+    }
+}
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.utilities;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
@@ -13,12 +14,7 @@ import java.util.stream.Collectors;
 public class BundleUtils {
 
     public static Object bundleArtifacts(String id, List<IBaseResource> resources, FhirContext fhirContext) {
-        for (IBaseResource resource : resources) {
-            if (resource.getIdElement().getIdPart() == null || resource.getIdElement().getIdPart().equals("")) {
-                ResourceUtils.setIgId(id.replace("-bundle", "-" + UUID.randomUUID()), resource, false);
-                resource.setId(resource.getClass().getSimpleName() + "/" + resource.getIdElement().getIdPart());
-            }
-        }
+        ensureIds(id, resources);
         
         switch (fhirContext.getVersion().getVersion()) {
             case DSTU3:
@@ -30,6 +26,38 @@ public class BundleUtils {
         }
     }
 
+    /**
+     * Replaces each resource without an id in the list by a copy with a generated id. Resources are shared through the
+     * resource caches, possibly by artifacts bundled concurrently, so they are not changed themselves.
+     */
+    public static void ensureIds(String id, List<IBaseResource> resources) {
+        for (int i = 0; i < resources.size(); i++) {
+            IBaseResource resource = resources.get(i);
+            if (resource.getIdElement().getIdPart() == null || resource.getIdElement().getIdPart().equals("")) {
+                resource = ResourceUtils.copy(resource);
+                ResourceUtils.setIgId(id.replace("-bundle", "-" + UUID.randomUUID()), resource, false);
+                resource.setId(resource.getClass().getSimpleName() + "/" + resource.getIdElement().getIdPart());
+                resources.set(i, resource);
+            }
+        }
+    }
+
+    // The url of the PUT request for the resource in a transaction bundle entry
+    public static String getEntryRequestUrl(IBaseResource resource, FhirContext fhirContext) {
+        return getEntryRequestUrl(resource, fhirContext.getVersion().getVersion());
+    }
+
+    public static String getEntryRequestUrl(IBaseResource resource, FhirVersionEnum fhirVersion) {
+        switch (fhirVersion) {
+            case DSTU3:
+                return ((org.hl7.fhir.dstu3.model.Resource) resource).getId();
+            case R4:
+                return (resource.getIdElement().getResourceType() == null) ? resource.fhirType() + "/" + resource.getIdElement().getIdPart() : resource.getIdElement().getValueAsString();
+            default:
+                throw new IllegalArgumentException("Unknown fhir version: " + fhirVersion.getFhirVersionString());
+        }
+    }
+
     public static org.hl7.fhir.dstu3.model.Bundle bundleStu3Artifacts(String id, List<IBaseResource> resources)
     {
         org.hl7.fhir.dstu3.model.Bundle bundle = new org.hl7.fhir.dstu3.model.Bundle();
@@ -43,7 +71,7 @@ public class BundleUtils {
                 .setRequest(
                     new org.hl7.fhir.dstu3.model.Bundle.BundleEntryRequestComponent()
                         .setMethod(org.hl7.fhir.dstu3.model.Bundle.HTTPVerb.PUT)
-                        .setUrl(((org.hl7.fhir.dstu3.model.Resource) resource).getId())
+                        .setUrl(getEntryRequestUrl(resource, FhirVersionEnum.DSTU3))
                 )
             );
         }
@@ -56,15 +84,14 @@ public class BundleUtils {
         ResourceUtils.setIgId(id, bundle, false);
         bundle.setType(org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION);
         for (IBaseResource resource : resources)
-        {            
-            String resourceRef = (resource.getIdElement().getResourceType() == null) ? resource.fhirType() + "/" + resource.getIdElement().getIdPart() : resource.getIdElement().getValueAsString();
+        {
             bundle.addEntry(
             new org.hl7.fhir.r4.model.Bundle.BundleEntryComponent()
                 .setResource((org.hl7.fhir.r4.model.Resource) resource)
                 .setRequest(
                     new org.hl7.fhir.r4.model.Bundle.BundleEntryRequestComponent()
                         .setMethod(org.hl7.fhir.r4.model.Bundle.HTTPVerb.PUT)
-                        .setUrl(resourceRef)
+                        .setUrl(getEntryRequestUrl(resource, FhirVersionEnum.R4))
                 )
             );
         }
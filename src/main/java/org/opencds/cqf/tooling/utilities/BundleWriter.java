@@ -0,0 +1,227 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.util.PrettyPrintWriterWrapper;
+import ca.uhn.fhir.util.XmlUtil;
+
+/**
+ * Writes a transaction Bundle of resources to a stream one entry at a time.
+ *
+ * The Bundle envelope is written with a Jackson JsonGenerator or a StAX XMLStreamWriter, and each entry resource is
+ * encoded by HAPI on its own and streamed into the envelope, so neither the Bundle nor its complete encoding is ever
+ * held in memory. The output is the same, byte for byte, as HAPI's pretty printed encoding of the Bundle built by
+ * {@link BundleUtils#bundleArtifacts}, so that rewriting unchanged content leaves the files unchanged.
+ */
+public class BundleWriter {
+
+    private static final String FHIR_NAMESPACE = "http://hl7.org/fhir";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    public static void writeTransactionBundle(String id, List<IBaseResource> resources, OutputStream outputStream, IOUtils.Encoding encoding, FhirContext fhirContext) throws IOException {
+        BundleUtils.ensureIds(id, resources);
+        // The id the Bundle built by BundleUtils would have
+        IBaseResource envelope = (IBaseResource)BundleUtils.bundleArtifacts(id, new ArrayList<IBaseResource>(), fhirContext);
+        String bundleId = envelope.getIdElement().getIdPart();
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        switch (encoding) {
+            case JSON:
+                writeJson(bundleId, resources, writer, ParserProvider.getParser(encoding, fhirContext), fhirContext);
+                break;
+            case XML:
+                try {
+                    writeXml(bundleId, resources, writer, fhirContext);
+                }
+                catch (XMLStreamException e) {
+                    throw new IOException("Error writing Bundle " + bundleId + ": " + e.getMessage(), e);
+                }
+                break;
+            default:
+                throw new RuntimeException("Unknown encoding type: " + encoding.toString());
+        }
+        writer.flush();
+    }
+
+    private static void writeJson(String bundleId, List<IBaseResource> resources, Writer writer, IParser parser, FhirContext fhirContext) throws IOException {
+        JsonGenerator generator = jsonFactory.createGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setPrettyPrinter(new HapiPrettyPrinter());
+
+        generator.writeStartObject();
+        generator.writeStringField("resourceType", "Bundle");
+        generator.writeStringField("id", bundleId);
+        generator.writeStringField("type", "transaction");
+        if (!resources.isEmpty()) {
+            generator.writeArrayFieldStart("entry");
+            for (IBaseResource resource : resources) {
+                generator.writeStartObject();
+                generator.writeFieldName("resource");
+                try (JsonParser resourceParser = jsonFactory.createParser(parser.encodeResourceToString(resource))) {
+                    copyJson(resourceParser, generator);
+                }
+                generator.writeObjectFieldStart("request");
+                generator.writeStringField("method", "PUT");
+                generator.writeStringField("url", BundleUtils.getEntryRequestUrl(resource, fhirContext));
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    /**
+     * The layout of HAPI's pretty printed JSON: "name": value, objects indented by two spaces, and array elements
+     * separated by ", " on the line of the array
+     */
+    private static class HapiPrettyPrinter extends DefaultPrettyPrinter {
+        private static final long serialVersionUID = 1L;
+
+        HapiPrettyPrinter() {
+            _objectIndenter = new DefaultIndenter("  ", "\n");
+        }
+
+        @Override
+        public void writeObjectFieldValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(": ");
+        }
+    }
+
+    // Copies the tokens of the parsed value, keeping the text of numbers so that the precision of decimals is kept
+    private static void copyJson(JsonParser parser, JsonGenerator generator) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case START_OBJECT: generator.writeStartObject(); break;
+                case END_OBJECT: generator.writeEndObject(); break;
+                case START_ARRAY: generator.writeStartArray(); break;
+                case END_ARRAY: generator.writeEndArray(); break;
+                case FIELD_NAME: generator.writeFieldName(parser.getCurrentName()); break;
+                case VALUE_STRING: generator.writeString(parser.getText()); break;
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT: generator.writeNumber(parser.getText()); break;
+                case VALUE_TRUE: generator.writeBoolean(true); break;
+                case VALUE_FALSE: generator.writeBoolean(false); break;
+                case VALUE_NULL: generator.writeNull(); break;
+                default: throw new IOException("Unexpected JSON token: " + token);
+            }
+        }
+    }
+
+    private static void writeXml(String bundleId, List<IBaseResource> resources, Writer writer, FhirContext fhirContext) throws XMLStreamException {
+        // The writer HAPI pretty prints with, so that the indentation, including that of XHTML narratives, is HAPI's
+        XMLStreamWriter xmlWriter = new PrettyPrintWriterWrapper(XmlUtil.createXmlStreamWriter(writer));
+        xmlWriter.writeStartElement("Bundle");
+        xmlWriter.writeDefaultNamespace(FHIR_NAMESPACE);
+        writeValueElement(xmlWriter, "id", bundleId);
+        writeValueElement(xmlWriter, "type", "transaction");
+        // Resources are copied from their compact encoding, which has no whitespace other than their own content
+        IParser compactParser = fhirContext.newXmlParser();
+        for (IBaseResource resource : resources) {
+            xmlWriter.writeStartElement("entry");
+            xmlWriter.writeStartElement("resource");
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader(compactParser.encodeResourceToString(resource)));
+            try {
+                copyXml(reader, xmlWriter);
+            }
+            finally {
+                reader.close();
+            }
+            xmlWriter.writeEndElement();
+            xmlWriter.writeStartElement("request");
+            writeValueElement(xmlWriter, "method", "PUT");
+            writeValueElement(xmlWriter, "url", BundleUtils.getEntryRequestUrl(resource, fhirContext));
+            xmlWriter.writeEndElement();
+            xmlWriter.writeEndElement();
+        }
+        xmlWriter.writeEndElement();
+        xmlWriter.flush();
+        xmlWriter.close();
+    }
+
+    private static void writeValueElement(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeAttribute("value", value);
+        writer.writeEndElement();
+    }
+
+    // Copies the events of the parsed document into the writer
+    private static void copyXml(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    writer.writeStartElement(emptyIfNull(reader.getPrefix()), reader.getLocalName(), emptyIfNull(reader.getNamespaceURI()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        String prefix = emptyIfNull(reader.getNamespacePrefix(i));
+                        if (prefix.isEmpty()) {
+                            writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+                        }
+                        else {
+                            writer.writeNamespace(prefix, reader.getNamespaceURI(i));
+                        }
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String namespace = emptyIfNull(reader.getAttributeNamespace(i));
+                        if (namespace.isEmpty()) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                        else {
+                            writer.writeAttribute(emptyIfNull(reader.getAttributePrefix(i)), namespace, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static String emptyIfNull(String value) {
+        return value != null ? value : "";
+    }
+}
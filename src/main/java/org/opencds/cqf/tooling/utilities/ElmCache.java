@@ -0,0 +1,301 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.cqframework.cql.cql2elm.Cql2ElmVisitor;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.DataRequirement;
+import org.hl7.fhir.r5.model.Library;
+import org.hl7.fhir.r5.model.ParameterDefinition;
+import org.hl7.fhir.r5.model.RelatedArtifact;
+
+import com.google.gson.Gson;
+
+/**
+ * Persistent cache of CQL translation results, shared across tool invocations.
+ *
+ * Entries are keyed by a hash the caller computes from everything that affects the translation (see
+ * CqlProcessor) and are stored under a directory per translator version. Each entry is a directory holding the
+ * ELM as the translator produced it, the related artifacts, data requirements and parameters as a FHIR Library, and
+ * the identifier, includes and messages as JSON. Entries that can not be read are discarded and the library is
+ * translated again.
+ *
+ * The translator version includes a hash of the translator classes and of the model info it translates against, so
+ * that translators that report the same version (or none, e.g. when not loaded from a jar) do not share entries. If
+ * the translator can not be identified, TRANSLATOR_VERSION is null and the cache must not be used.
+ */
+public class ElmCache {
+
+    // The cache directory under the IG root, if no other directory is given
+    public static final String DEFAULT_DIRECTORY_NAME = ".cqf-cache";
+
+    // Model info of the quick (FHIR, QICore and QUICK), QDM and System models, one per artifact
+    private static final String[] MODEL_INFO_RESOURCES = {
+        "/org/hl7/fhir/fhir-modelinfo-4.0.1.xml",
+        "/gov/healthit/qdm/qdm-modelinfo.xml",
+        "/org/hl7/elm/r1/system-modelinfo.xml"
+    };
+
+    // The version of the translator and a hash of its classes and model info, or null if they can not be read
+    public static final String TRANSLATOR_VERSION = getTranslatorVersion();
+
+    private static final String HEADER_FILE = "entry.json";
+    private static final String ARTIFACTS_FILE = "library.json";
+    private static final String ELM_FILE = "elm.xml";
+    private static final String JSON_ELM_FILE = "elm.json";
+
+    /**
+     * A message reported by the translator
+     */
+    public static class Message {
+        public String type;
+        public int line;
+        public int column;
+        public String location;
+        public String message;
+        public String level;
+    }
+
+    /**
+     * The content of a successful translation
+     */
+    public static class Entry {
+        public String system;
+        public String id;
+        public String version;
+        // Names of the included libraries
+        public List<String> includes = new ArrayList<>();
+        public byte[] elm;
+        public byte[] jsonElm;
+        public List<RelatedArtifact> relatedArtifacts = new ArrayList<>();
+        public List<DataRequirement> dataRequirements = new ArrayList<>();
+        public List<ParameterDefinition> parameters = new ArrayList<>();
+        public List<Message> messages = new ArrayList<>();
+    }
+
+    // The part of an entry stored as plain JSON
+    private static class Header {
+        String system;
+        String id;
+        String version;
+        List<String> includes;
+        List<Message> messages;
+    }
+
+    private final File directory;
+    private final Gson gson = new Gson();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @throws IllegalStateException if the translator version is not known
+     */
+    public ElmCache(String directoryPath) {
+        if (TRANSLATOR_VERSION == null) {
+            throw new IllegalStateException("The CQL translator version can not be determined");
+        }
+        this.directory = new File(new File(directoryPath, "elm"), "cql-to-elm-" + TRANSLATOR_VERSION);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private static String getTranslatorVersion() {
+        String hash;
+        try {
+            StringBuilder hashes = new StringBuilder();
+            hashes.append(getClassHash(CqlTranslator.class, Cql2ElmVisitor.class));
+            for (String resource : MODEL_INFO_RESOURCES) {
+                hashes.append('\n').append(getModelInfoVersion(resource));
+            }
+            hash = DigestUtils.sha256Hex(hashes.toString()).substring(0, 12);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        String version = CqlTranslator.class.getPackage().getImplementationVersion();
+        return version != null ? version + "-" + hash : hash;
+    }
+
+    private static String getClassHash(Class<?>... classes) throws IOException {
+        StringBuilder hashes = new StringBuilder();
+        for (Class<?> c : classes) {
+            try (InputStream stream = c.getResourceAsStream(c.getSimpleName() + ".class")) {
+                if (stream == null) {
+                    throw new IOException("Class file of " + c.getName() + " not found");
+                }
+                hashes.append(DigestUtils.sha256Hex(stream));
+            }
+        }
+        return hashes.toString();
+    }
+
+    /**
+     * @return The version of the artifact containing the model info, if it has one, and a hash of the model info
+     */
+    private static String getModelInfoVersion(String resource) throws IOException {
+        URL url = ElmCache.class.getResource(resource);
+        if (url == null) {
+            throw new IOException("Model info " + resource + " not found");
+        }
+        String version = null;
+        URLConnection connection = url.openConnection();
+        if (connection instanceof JarURLConnection) {
+            Manifest manifest = ((JarURLConnection)connection).getManifest();
+            if (manifest != null) {
+                version = manifest.getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+            }
+        }
+        try (InputStream stream = connection.getInputStream()) {
+            return version + "|" + DigestUtils.sha256Hex(stream);
+        }
+    }
+
+    private File getEntryDirectory(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    /**
+     * @return The cached entry for the key, or null if there is none
+     */
+    public Entry get(String key) {
+        File entryDirectory = getEntryDirectory(key);
+        if (entryDirectory.exists()) {
+            try {
+                Entry entry = read(entryDirectory);
+                hits.incrementAndGet();
+                return entry;
+            }
+            catch (Exception e) {
+                LogUtils.info("Discarding unreadable cache entry " + entryDirectory.getPath() + ": " + e.getMessage());
+                FileUtils.deleteQuietly(entryDirectory);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, Entry entry) {
+        File entryDirectory = getEntryDirectory(key);
+        // Write to a temporary directory first so concurrent or interrupted runs never see a partial entry
+        File temp = null;
+        try {
+            entryDirectory.getParentFile().mkdirs();
+            temp = Files.createTempDirectory(entryDirectory.getParentFile().toPath(), key + ".tmp").toFile();
+            write(temp, entry);
+            Files.move(temp.toPath(), entryDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception e) {
+            // The move fails if another run stored the same translation first
+            if (!entryDirectory.exists()) {
+                LogUtils.info("Unable to write cache entry " + entryDirectory.getPath() + ": " + e.getMessage());
+            }
+        }
+        finally {
+            if (temp != null && temp.exists()) {
+                FileUtils.deleteQuietly(temp);
+            }
+        }
+    }
+
+    private Entry read(File entryDirectory) throws IOException {
+        Header header;
+        try (Reader reader = Files.newBufferedReader(new File(entryDirectory, HEADER_FILE).toPath(), StandardCharsets.UTF_8)) {
+            header = gson.fromJson(reader, Header.class);
+        }
+        if (header == null || header.id == null) {
+            throw new IOException("The entry has no library identifier");
+        }
+
+        Library artifacts;
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(new File(entryDirectory, ARTIFACTS_FILE)))) {
+            artifacts = (Library)new JsonParser().parse(stream);
+        }
+
+        Entry entry = new Entry();
+        entry.system = header.system;
+        entry.id = header.id;
+        entry.version = header.version;
+        if (header.includes != null) {
+            entry.includes.addAll(header.includes);
+        }
+        if (header.messages != null) {
+            entry.messages.addAll(header.messages);
+        }
+        entry.elm = readIfExists(new File(entryDirectory, ELM_FILE));
+        entry.jsonElm = readIfExists(new File(entryDirectory, JSON_ELM_FILE));
+        entry.relatedArtifacts.addAll(artifacts.getRelatedArtifact());
+        entry.dataRequirements.addAll(artifacts.getDataRequirement());
+        entry.parameters.addAll(artifacts.getParameter());
+        return entry;
+    }
+
+    private void write(File entryDirectory, Entry entry) throws IOException {
+        if (entry.elm != null) {
+            Files.write(new File(entryDirectory, ELM_FILE).toPath(), entry.elm);
+        }
+        if (entry.jsonElm != null) {
+            Files.write(new File(entryDirectory, JSON_ELM_FILE).toPath(), entry.jsonElm);
+        }
+
+        Library artifacts = new Library();
+        artifacts.setRelatedArtifact(new ArrayList<>(entry.relatedArtifacts));
+        artifacts.setDataRequirement(new ArrayList<>(entry.dataRequirements));
+        artifacts.setParameter(new ArrayList<>(entry.parameters));
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(new File(entryDirectory, ARTIFACTS_FILE)))) {
+            new JsonParser().compose(stream, artifacts);
+        }
+
+        Header header = new Header();
+        header.system = entry.system;
+        header.id = entry.id;
+        header.version = entry.version;
+        header.includes = entry.includes;
+        header.messages = entry.messages;
+        try (Writer writer = Files.newBufferedWriter(new File(entryDirectory, HEADER_FILE).toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(header, writer);
+        }
+    }
+
+    private static byte[] readIfExists(File file) throws IOException {
+        return file.exists() ? Files.readAllBytes(file.toPath()) : null;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d hits, %d misses", directory.getPath(), hits.get(), misses.get());
+    }
+}
@@ -0,0 +1,83 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Content-addressed store for translated ELM, so that the ELM of a large IG does not have to be held on the heap
+ * between translation and the refresh of the Library resources.
+ *
+ * Content is stored in a file named by its hash and read back on request. A temporary store is deleted when the
+ * process exits.
+ */
+public class ElmStore {
+
+    private final File directory;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    public ElmStore(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    public static ElmStore createTemporary() {
+        try {
+            File directory = Files.createTempDirectory("cqf-elm").toFile();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> FileUtils.deleteQuietly(directory)));
+            return new ElmStore(directory);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Unable to create a temporary ELM store: " + e.getMessage(), e);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The file holding the content, written only if the store does not already have it
+     */
+    public File put(byte[] content) {
+        File file = new File(directory, DigestUtils.sha256Hex(content));
+        if (!file.exists()) {
+            File temp = null;
+            try {
+                temp = File.createTempFile(file.getName(), ".tmp", directory);
+                Files.write(temp.toPath(), content);
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                bytesWritten.addAndGet(content.length);
+            }
+            catch (IOException e) {
+                if (temp != null) {
+                    temp.delete();
+                }
+                throw new RuntimeException("Unable to write ELM to " + file.getPath() + ": " + e.getMessage(), e);
+            }
+        }
+        return file;
+    }
+
+    public byte[] get(File file) {
+        try {
+            byte[] content = Files.readAllBytes(file.toPath());
+            bytesRead.addAndGet(content.length);
+            return content;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Unable to read ELM from " + file.getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d KB written, %d KB read", directory.getPath(), bytesWritten.get() / 1024, bytesRead.get() / 1024);
+    }
+}
@@ -0,0 +1,113 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Copies files into bundle output directories using one of several strategies.
+ */
+public class FileCopier {
+
+    public enum Mode {
+        // Always copy the file (NIO Files.copy, which uses in-kernel transfer where the platform supports it)
+        COPY("copy"),
+        // Hard link the destination to the source, falling back to a copy where links are not supported
+        LINK("link"),
+        // Copy only when the destination does not already have identical content
+        SKIP_IDENTICAL("skip");
+
+        private String string;
+
+        public String toString() {
+            return this.string;
+        }
+
+        private Mode(String string) {
+            this.string = string;
+        }
+
+        public static Mode parse(String value) {
+            if (value == null) {
+                return COPY;
+            }
+
+            switch (value.trim().toLowerCase()) {
+                case "copy":
+                    return COPY;
+                case "link":
+                    return LINK;
+                case "skip":
+                    return SKIP_IDENTICAL;
+                default:
+                    throw new IllegalArgumentException("Unknown copy mode: " + value);
+            }
+        }
+    }
+
+    private static volatile boolean linkFallbackReported = false;
+
+    /**
+     * @return true if the destination was written, false if it already had the same content
+     */
+    public static boolean copy(Path source, Path destination, Mode mode) throws IOException {
+        switch (mode) {
+            case LINK:
+                Files.deleteIfExists(destination);
+                try {
+                    Files.createLink(destination, source);
+                    return true;
+                }
+                catch (UnsupportedOperationException | IOException e) {
+                    // e.g. the destination is on a different file system than the source
+                    if (!linkFallbackReported) {
+                        linkFallbackReported = true;
+                        System.out.println("Unable to hard link " + destination + " to " + source + ", copying instead: " + e.getMessage());
+                    }
+                    Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+                    return true;
+                }
+            case SKIP_IDENTICAL:
+                if (hasSameContent(source, destination)) {
+                    return false;
+                }
+                Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            default:
+                Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+        }
+    }
+
+    public static boolean hasSameContent(Path source, Path destination) throws IOException {
+        if (!Files.isRegularFile(destination) || Files.size(source) != Files.size(destination)) {
+            return false;
+        }
+
+        try (InputStream sourceStream = new BufferedInputStream(Files.newInputStream(source));
+             InputStream destinationStream = new BufferedInputStream(Files.newInputStream(destination))) {
+            byte[] sourceBuffer = new byte[8192];
+            byte[] destinationBuffer = new byte[8192];
+            int read;
+            while ((read = sourceStream.read(sourceBuffer)) > 0) {
+                int offset = 0;
+                while (offset < read) {
+                    int destinationRead = destinationStream.read(destinationBuffer, offset, read - offset);
+                    if (destinationRead < 0) {
+                        return false;
+                    }
+                    offset += destinationRead;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (sourceBuffer[i] != destinationBuffer[i]) {
+                        return false;
+                    }
+                }
+            }
+            return destinationStream.read() < 0;
+        }
+    }
+}
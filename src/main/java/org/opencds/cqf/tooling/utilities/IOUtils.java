@@ -2,7 +2,6 @@ package org.opencds.cqf.tooling.utilities;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
@@ -20,6 +19,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FilenameUtils;
 import org.cqframework.cql.cql2elm.CqlTranslator;
@@ -28,11 +34,10 @@ import org.cqframework.cql.cql2elm.LibraryManager;
 import org.cqframework.cql.cql2elm.ModelManager;
 import org.cqframework.cql.elm.tracking.TrackBack;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.library.CompiledLibraryRegistry;
 import org.opencds.cqf.tooling.processor.LibraryProcessor;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.context.RuntimeCompositeDatatypeDefinition;
-import ca.uhn.fhir.context.RuntimeResourceDefinition;
 import ca.uhn.fhir.parser.IParser;
 
 public class IOUtils 
@@ -83,7 +88,7 @@ public class IOUtils
             return new byte[] { };
         }
         IParser parser = getParser(encoding, fhirContext);    
-        return parser.setPrettyPrint(true).encodeResourceToString(resource).getBytes();
+        return parser.encodeResourceToString(resource).getBytes();
     }
 
     public static String encodeResourceAsString(IBaseResource resource, Encoding encoding, FhirContext fhirContext) 
@@ -92,7 +97,7 @@ public class IOUtils
             return "";
         }
         IParser parser = getParser(encoding, fhirContext);  
-        return parser.setPrettyPrint(true).encodeResourceToString(resource).toString();
+        return parser.encodeResourceToString(resource).toString();
     }
 
     public static <T extends IBaseResource> void writeResource(T resource, String path, Encoding encoding, FhirContext fhirContext) 
@@ -107,11 +112,11 @@ public class IOUtils
             outputPath = FilenameUtils.concat(path, formatFileName(resource.getIdElement().getIdPart(), encoding, fhirContext));
         }
 
-        try (FileOutputStream writer = new FileOutputStream(outputPath))
+        prepareOutputFile(outputPath);
+        try
         {
-            writer.write(parseResource(resource, encoding, fhirContext));
-            writer.flush();
-            writer.close();
+            byte[] content = parseResource(resource, encoding, fhirContext);
+            OutputFingerprints.write(outputPath, stream -> stream.write(content), copyMode == FileCopier.Mode.SKIP_IDENTICAL);
         }
         catch (IOException e)
         {
@@ -142,11 +147,41 @@ public class IOUtils
         }
     }
 
+    /**
+     * Writes the resources as a transaction bundle (see BundleUtils.bundleArtifacts) without building the Bundle,
+     * encoding and writing one entry at a time.
+     * @param id The base id of the bundle
+     * @param path The directory to write the bundle to, or the path of an existing bundle file
+     */
+    public static void writeBundle(String id, List<IBaseResource> resources, String path, Encoding encoding, FhirContext fhirContext) {
+        String outputPath = path;
+        if (!new File(path).isFile()) {
+            IBaseResource envelope = (IBaseResource)BundleUtils.bundleArtifacts(id, new ArrayList<IBaseResource>(), fhirContext);
+            outputPath = FilenameUtils.concat(path, formatFileName(envelope.getIdElement().getIdPart(), encoding, fhirContext));
+        }
+
+        prepareOutputFile(outputPath);
+        try
+        {
+            OutputFingerprints.write(outputPath, stream -> BundleWriter.writeTransactionBundle(id, resources, stream, encoding, fhirContext),
+                copyMode == FileCopier.Mode.SKIP_IDENTICAL);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            throw new RuntimeException("Error writing Bundle to file: " + e.getMessage());
+        }
+    }
+
+    // How copyFile populates output directories; in SKIP_IDENTICAL mode writeResource and writeBundle also leave unchanged files
+    public static FileCopier.Mode copyMode = FileCopier.Mode.COPY;
+
     public static void copyFile(String inputPath, String outputPath) {
         try  {
             Path src = Paths.get(inputPath);
             Path dest = Paths.get(outputPath);
-            Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+            FileCopier.copy(src, dest, copyMode);
+            recordOutputFile(outputPath);
         }
         catch (IOException e) {
             e.printStackTrace();
@@ -154,6 +189,85 @@ public class IOUtils
         }
     }
 
+    // Output directories prepared in SKIP_IDENTICAL mode, with the files written to each since
+    private static final Map<String, Set<String>> preparedDirectories = new ConcurrentHashMap<String, Set<String>>();
+
+    private static String normalizePath(String path) {
+        return new File(path).getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Prepares an output directory to be (re)populated. In SKIP_IDENTICAL copy mode the existing contents are kept
+     * so unchanged files need not be rewritten, and removeUnwrittenFiles must be called once the directory has been
+     * populated, or releaseDirectory if populating it failed; otherwise the directory is emptied as with
+     * initializeDirectory.
+     */
+    public static void prepareDirectory(String path) {
+        if (copyMode != FileCopier.Mode.SKIP_IDENTICAL) {
+            initializeDirectory(path);
+            return;
+        }
+
+        new File(path).mkdirs();
+        String directory = normalizePath(path);
+        for (String prepared : preparedDirectories.keySet()) {
+            if (directory.equals(prepared) || directory.startsWith(prepared + File.separator)) {
+                return;
+            }
+        }
+        preparedDirectories.put(directory, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Deletes any files under a directory set up with prepareDirectory that were not copied or written since.
+     */
+    public static void removeUnwrittenFiles(String path) {
+        Set<String> written = preparedDirectories.remove(normalizePath(path));
+        if (written == null) {
+            return;
+        }
+
+        for (String filePath : getFilePaths(path, true)) {
+            if (!written.contains(normalizePath(filePath))) {
+                new File(filePath).delete();
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a directory set up with prepareDirectory without deleting anything, for when populating it
+     * failed; does nothing once removeUnwrittenFiles has been called.
+     */
+    public static void releaseDirectory(String path) {
+        preparedDirectories.remove(normalizePath(path));
+    }
+
+    private static void recordOutputFile(String outputPath) {
+        if (preparedDirectories.isEmpty()) {
+            return;
+        }
+
+        String file = normalizePath(outputPath);
+        for (Map.Entry<String, Set<String>> prepared : preparedDirectories.entrySet()) {
+            if (file.startsWith(prepared.getKey() + File.separator)) {
+                prepared.getValue().add(file);
+            }
+        }
+    }
+
+    private static void prepareOutputFile(String outputPath) {
+        // A hard linked output must be replaced rather than written through, which would change the source as well
+        if (copyMode == FileCopier.Mode.LINK) {
+            try {
+                Files.deleteIfExists(Paths.get(outputPath));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Error replacing file: " + outputPath + " - " + e.getMessage());
+            }
+        }
+        recordOutputFile(outputPath);
+    }
+
     public static String getTypeQualifiedResourceId(String path, FhirContext fhirContext) {
         IBaseResource resource = readResource(path, fhirContext, true);
         if (resource != null) {
@@ -191,8 +305,20 @@ public class IOUtils
         return readResource(path, fhirContext, false);
     }
     
+    private static ResourceCache resourceCache = new ResourceCache();
+    public static ResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     * Replaces the parsed resource cache with an empty one bounded by the given total file size.
+     * @param maximumWeight The maximum total size, in bytes, of the files whose resources are cached
+     */
+    public static void setResourceCacheMaximumWeight(long maximumWeight) {
+        resourceCache = new ResourceCache(maximumWeight);
+    }
+
     //users should always check for null
-    private static Map<String, IBaseResource> cachedResources = new HashMap<String, IBaseResource>();
     public static IBaseResource readResource(String path, FhirContext fhirContext, Boolean safeRead) 
     {        
         Encoding encoding = getEncoding(path);
@@ -200,46 +326,128 @@ public class IOUtils
             return null;
         }
 
-        IBaseResource resource = cachedResources.get(path);     
-        if (resource != null) {
-            return resource;
-        } 
+        File file = new File(path);
 
-        try
-        {
-            IParser parser = getParser(encoding, fhirContext);
-            File file = new File(path);
+        // A relative path without a directory has no prefixed alternative
+        if (!file.exists() && file.getParent() != null) {
+            String[] paths = file.getParent().split("\\\\");
+            file = new File(Paths.get(file.getParent(), paths[paths.length - 1] + "-" + file.getName()).toString());
+        }
 
+        if (safeRead) {
             if (!file.exists()) {
-                String[] paths = file.getParent().split("\\\\");
-                file = new File(Paths.get(file.getParent(), paths[paths.length - 1] + "-" + file.getName()).toString());
+                return null;
             }
+        }
 
-            if (safeRead) {
-                if (!file.exists()) {
-                    return null;
-                }
+        return resourceCache.get(file, fhirContext.getVersion().getVersion(), f -> {
+            try (FileReader reader = new FileReader(f))
+            {
+                IParser parser = getParser(encoding, fhirContext);
+                return (IBaseResource)parser.parseResource(reader);
             }
-            resource = (IBaseResource)parser.parseResource(new FileReader(file));
-            cachedResources.put(path, resource);
-        }
-        catch (Exception e)
-        {
-            throw new RuntimeException(e.getMessage());
-        }
-        return resource;
+            catch (Exception e)
+            {
+                throw new RuntimeException(e.getMessage());
+            }
+        });
     }
 
+    // Number of threads used by readResources; 1 reads sequentially
+    public static int resourceReaderThreads = 1;
+
+    // Set on threads that are workers of another pool, so that their reads do not multiply the threads in use
+    private static final ThreadLocal<Boolean> readOnCallingThread = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Makes readResources read on the calling thread rather than the shared reader pool, for the current thread
+     */
+    public static void setReadOnCallingThread(boolean value) {
+        readOnCallingThread.set(value);
+    }
+
+    // The pool shared by all readResources calls, created on first use, and the number of threads it has
+    private static ExecutorService readerExecutor;
+    private static int readerExecutorThreads;
+
+    private static synchronized ExecutorService getReaderExecutor(int threads) {
+        if (readerExecutor == null || readerExecutorThreads != threads) {
+            if (readerExecutor != null) {
+                readerExecutor.shutdown();
+            }
+            AtomicInteger count = new AtomicInteger();
+            readerExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "resource-reader-" + count.incrementAndGet());
+                // Idle readers do not keep the process alive
+                thread.setDaemon(true);
+                return thread;
+            });
+            readerExecutorThreads = threads;
+        }
+        return readerExecutor;
+    }
+
+    /**
+     * Reads the resources at the given paths, on resourceReaderThreads threads when it is more than 1.
+     *
+     * The result is in the order of the paths. A file that can not be read is recorded with
+     * LogUtils.putException and left out of the result rather than failing the batch.
+     */
     public static List<IBaseResource> readResources(List<String> paths, FhirContext fhirContext) 
     {
-        List<IBaseResource> resources = new ArrayList<>();
-        for (String path : paths)
-        {
-            IBaseResource resource = readResource(path, fhirContext);
-            if (resource != null) {
-                resources.add(resource);
+        return readResources(paths, fhirContext, resourceReaderThreads);
+    }
+
+    /**
+     * Reads the resources at the given paths on a shared pool of worker threads. The resources are read on the
+     * calling thread if threads is 1, or the thread is a worker that was set to read on the calling thread.
+     *
+     * The result is in the order of the paths whichever thread reads them. Each file that can not be read is
+     * recorded with LogUtils.putException and left out of the result rather than failing the batch.
+     * @param threads The number of worker threads
+     */
+    public static List<IBaseResource> readResources(List<String> paths, FhirContext fhirContext, int threads)
+    {
+        List<IBaseResource> resources = new ArrayList<>(paths.size());
+        if (threads <= 1 || paths.size() <= 1 || readOnCallingThread.get()) {
+            for (String path : paths) {
+                try {
+                    IBaseResource resource = readResource(path, fhirContext);
+                    if (resource != null) {
+                        resources.add(resource);
+                    }
+                }
+                catch (RuntimeException e) {
+                    LogUtils.putException(path, e);
+                }
+            }
+            return resources;
+        }
+
+        ExecutorService executor = getReaderExecutor(threads);
+        List<Future<IBaseResource>> futures = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            futures.add(executor.submit(() -> readResource(path, fhirContext)));
+        }
+
+        try {
+            for (int i = 0; i < paths.size(); i++) {
+                try {
+                    IBaseResource resource = futures.get(i).get();
+                    if (resource != null) {
+                        resources.add(resource);
+                    }
+                }
+                catch (ExecutionException e) {
+                    LogUtils.putException(paths.get(i), e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+                }
             }
         }
+        catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading resources", e);
+        }
         return resources;
     }
 
@@ -347,14 +555,7 @@ public class IOUtils
     //users should protect against Encoding.UNKNOWN or Enconding.CQL
     private static IParser getParser(Encoding encoding, FhirContext fhirContext) 
     {
-        switch (encoding) {
-            case XML: 
-                return fhirContext.newXmlParser();
-            case JSON:
-                return fhirContext.newJsonParser();
-            default: 
-                throw new RuntimeException("Unknown encoding type: " + encoding.toString());
-        }
+        return ParserProvider.getParser(encoding, fhirContext);
     }
 
     public static Boolean pathEndsWithElement(String igPath, String pathElement)
@@ -408,12 +609,11 @@ public class IOUtils
         return dependencyCqlFiles;
     } 
   
-    private static Map<String, CqlTranslator> cachedTranslator = new HashMap<String, CqlTranslator>();
+    /**
+     * Translates a CQL file. Translations are not cached here; see CompiledLibraryRegistry.
+     */
     public static CqlTranslator translate(String cqlContentPath, ModelManager modelManager, LibraryManager libraryManager) {
-        CqlTranslator translator = cachedTranslator.get(cqlContentPath);
-        if (translator != null) {
-            return translator;
-        }
+        CqlTranslator translator;
         try {
           File cqlFile = new File(cqlContentPath);
           if(!cqlFile.getName().endsWith(".cql")) {
@@ -443,7 +643,6 @@ public class IOUtils
                 }
                 throw new IllegalArgumentException(errors.toString());
             }
-            cachedTranslator.put(cqlContentPath, translator);
             return translator;
         } catch (IOException e) {
             //e.printStackTrace();
@@ -508,27 +707,58 @@ public class IOUtils
     }
 
     public static String getLibraryPathAssociatedWithCqlFileName(String cqlPath, FhirContext fhirContext) {
-        String libraryPath = null;
-        String fileName = FilenameUtils.getName(cqlPath);
-        String libraryFileName = LibraryProcessor.ResourcePrefix + fileName;
-        for (String path : IOUtils.getLibraryPaths(fhirContext)) {
-            // NOTE: A bit of a hack, but we need to support both xml and json encodings for existing resources and the long-term strategy is
-            // to revisit this and change the approach to use the references rather than file name matching, so this should be good for the near-term.
-            if (path.endsWith(libraryFileName.replaceAll(".cql", ".json"))
-                || path.endsWith(libraryFileName.replaceAll(".cql", ".xml"))
-                || path.endsWith(fileName.replaceAll(".cql", ".json"))
-                || path.endsWith(fileName.replaceAll(".cql", ".xml")))
-                {
-                libraryPath = path;
-                break;
+        // NOTE: Both xml and json encodings are supported for existing resources, and both "library-<name>" and "<name>" file names.
+        // The long-term strategy is to revisit this and change the approach to use the references rather than file name matching.
+        return getArtifactIndex(fhirContext).getLibraryPath(FilenameUtils.getBaseName(cqlPath), null);
+    }
+
+    /**
+     * Discards the cached resource catalog, path sets, artifact index, CQL translations and library and ValueSet dependencies so the next lookups
+     * reflect the current content of the resource directories. Parsed resources are keyed by file modification
+     * time and are not discarded.
+     */
+    public static void clearCaches() {
+        synchronized (IOUtils.class) {
+            resourceCatalog = null;
+            artifactIndex = null;
+            cqlLibraryPaths.clear();
+            terminologyPaths.clear();
+            libraryPaths.clear();
+            measurePaths.clear();
+            measureReportPaths.clear();
+            planDefinitionPaths.clear();
+            activityDefinitionPaths.clear();
+            devicePaths.clear();
+        }
+        CompiledLibraryRegistry.clear();
+        LibraryProcessor.clearLibraryDependencies();
+        ResourceUtils.clearValueSetDependencies();
+    }
+
+    private static ArtifactIndex artifactIndex;
+    public static ArtifactIndex getArtifactIndex(FhirContext fhirContext) {
+        synchronized (IOUtils.class) {
+            if (artifactIndex == null || artifactIndex.getFhirContext().getVersion().getVersion() != fhirContext.getVersion().getVersion()) {
+                artifactIndex = ArtifactIndex.build(fhirContext);
             }
+            return artifactIndex;
         }
+    }
 
-        return libraryPath;
+    private static ResourceCatalog resourceCatalog;
+    public static ResourceCatalog getResourceCatalog() {
+        synchronized (IOUtils.class) {
+            if (resourceCatalog == null) {
+                resourceCatalog = new ResourceCatalog();
+            }
+        }
+        // NOTE: Directories may be added to resourceDirectories after the first lookup; only those are walked here.
+        resourceCatalog.index(resourceDirectories);
+        return resourceCatalog;
     }
 
     private static HashSet<String> cqlLibraryPaths = new HashSet<String>();
-    public static HashSet<String> getCqlLibraryPaths() {
+    public static synchronized HashSet<String> getCqlLibraryPaths() {
         if (cqlLibraryPaths.isEmpty()) {
             setupCqlLibraryPaths();
         }
@@ -536,195 +766,70 @@ public class IOUtils
     }
     private static void setupCqlLibraryPaths() {  
         //need to add a error report for bad resource paths
-        for(String dir : resourceDirectories) {
-            List<String> filePaths = IOUtils.getFilePaths(dir, true);
-            filePaths.stream().filter(path -> path.contains(".cql")).forEach(path -> cqlLibraryPaths.add(path));
+        List<String> filePaths;
+        if (resourceCatalog != null) {
+            filePaths = getResourceCatalog().getFilePaths();
         }
+        else {
+            filePaths = new ArrayList<String>();
+            for(String dir : resourceDirectories) {
+                filePaths.addAll(IOUtils.getFilePaths(dir, true));
+            }
+        }
+        filePaths.stream().filter(path -> path.contains(".cql")).forEach(path -> cqlLibraryPaths.add(path));
     }
 
     private static HashSet<String> terminologyPaths = new HashSet<String>();
-    public static HashSet<String> getTerminologyPaths(FhirContext fhirContext) {
+    public static synchronized HashSet<String> getTerminologyPaths(FhirContext fhirContext) {
         if (terminologyPaths.isEmpty()) {
-            setupTerminologyPaths(fhirContext);
+            terminologyPaths.addAll(getResourceCatalog().getPaths("ValueSet"));
         }
         return terminologyPaths;
     }
-    private static void setupTerminologyPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-        for(String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true))
-            {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if (path.toLowerCase().contains("valuesets") || path.toLowerCase().contains("valueset")) {
-                        System.out.println("Error reading in Terminology from path: " + path + "\n" + e);
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition valuesetDefinition = (RuntimeResourceDefinition)ResourceUtils.getResourceDefinition(fhirContext, "ValueSet");
-            RuntimeCompositeDatatypeDefinition conceptDefinition = (RuntimeCompositeDatatypeDefinition)ResourceUtils.getElementDefinition(fhirContext, "CodeableConcept");
-            RuntimeCompositeDatatypeDefinition codingDefinition = (RuntimeCompositeDatatypeDefinition)ResourceUtils.getElementDefinition(fhirContext, "Coding");
-            String valuesetClassName = valuesetDefinition.getImplementingClass().getName();
-            String conceptClassName = conceptDefinition.getImplementingClass().getName();
-            String codingClassName = codingDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  
-                    valuesetClassName.equals(entry.getValue().getClass().getName())
-                    || conceptClassName.equals(entry.getValue().getClass().getName())
-                    || codingClassName.equals(entry.getValue().getClass().getName())
-                )
-                .forEach(entry -> terminologyPaths.add(entry.getKey()));
-        }
-    }
 
     private static HashSet<String> libraryPaths = new HashSet<String>();
-    public static HashSet<String> getLibraryPaths(FhirContext fhirContext) {
+    public static synchronized HashSet<String> getLibraryPaths(FhirContext fhirContext) {
         if (libraryPaths.isEmpty()) {
-            setupLibraryPaths(fhirContext);
+            libraryPaths.addAll(getResourceCatalog().getPaths("Library"));
         }
         return libraryPaths;
     }
-    private static void setupLibraryPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-        for(String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true))
-            {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("library")) {
-                        System.out.println("Error reading in Library from path: " + path + "\n" + e);
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition libraryDefinition = (RuntimeResourceDefinition)ResourceUtils.getResourceDefinition(fhirContext, "Library");
-            String libraryClassName = libraryDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  libraryClassName.equals(entry.getValue().getClass().getName()))
-                .forEach(entry -> libraryPaths.add(entry.getKey()));
-        }
-    }
 
     private static HashSet<String> measurePaths = new HashSet<String>();
-    public static HashSet<String> getMeasurePaths(FhirContext fhirContext) {
+    public static synchronized HashSet<String> getMeasurePaths(FhirContext fhirContext) {
         if (measurePaths.isEmpty()) {
-            setupMeasurePaths(fhirContext);
+            measurePaths.addAll(getResourceCatalog().getPaths("Measure"));
         }
         return measurePaths;
     }
-    private static void setupMeasurePaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-        for(String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true))
-            {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("measure")) {
-                        System.out.println("Error reading in Measure from path: " + path + "\n" + e);
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition measureDefinition = (RuntimeResourceDefinition)ResourceUtils.getResourceDefinition(fhirContext, "Measure");
-            String measureClassName = measureDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  measureClassName.equals(entry.getValue().getClass().getName()))
-                .forEach(entry -> measurePaths.add(entry.getKey()));
-        }
-    }
 
     private static HashSet<String> measureReportPaths = new HashSet<String>();
-    public static HashSet<String> getMeasureReportPaths(FhirContext fhirContext) {
+    public static synchronized HashSet<String> getMeasureReportPaths(FhirContext fhirContext) {
         if (measureReportPaths.isEmpty()) {
-            setupMeasureReportPaths(fhirContext);
+            measureReportPaths.addAll(getResourceCatalog().getPaths("MeasureReport"));
         }
         return measureReportPaths;
     }
-    private static void setupMeasureReportPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-        for(String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true))
-            {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    //TODO: handle exception
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition measureReportDefinition = (RuntimeResourceDefinition)ResourceUtils.getResourceDefinition(fhirContext, "MeasureReport");
-            String measureReportClassName = measureReportDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  measureReportClassName.equals(entry.getValue().getClass().getName()))
-                .forEach(entry -> measureReportPaths.add(entry.getKey()));
-        }
-    }
 
-	private static HashSet<String> planDefinitionPaths = new HashSet<String>();
-    public static HashSet<String> getPlanDefinitionPaths(FhirContext fhirContext) {
+    private static HashSet<String> planDefinitionPaths = new HashSet<String>();
+    public static synchronized HashSet<String> getPlanDefinitionPaths(FhirContext fhirContext) {
         if (planDefinitionPaths.isEmpty()) {
-            setupPlanDefinitionPaths(fhirContext);
+            planDefinitionPaths.addAll(getResourceCatalog().getPaths("PlanDefinition"));
         }
         return planDefinitionPaths;
     }
-    private static void setupPlanDefinitionPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-        for(String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true))
-            {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    //TODO: handle exception
-                }
-            }
-            RuntimeResourceDefinition planDefinitionDefinition = (RuntimeResourceDefinition)ResourceUtils.getResourceDefinition(fhirContext, "PlanDefinition");
-            String planDefinitionClassName = planDefinitionDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  planDefinitionClassName.equals(entry.getValue().getClass().getName()))
-                .forEach(entry -> planDefinitionPaths.add(entry.getKey()));
-        }
-    }
 
+    // BUG: resourceDirectories is being populated with all "per-convention" directories during validation. So,
+    // if you have resources in the /tests directory for example, they will be picked up from there, rather than
+    // from your resources directories.
     private static HashSet<String> activityDefinitionPaths = new HashSet<String>();
-    public static HashSet<String> getActivityDefinitionPaths(FhirContext fhirContext) {
+    public static synchronized HashSet<String> getActivityDefinitionPaths(FhirContext fhirContext) {
         if (activityDefinitionPaths.isEmpty()) {
             System.out.println("Reading activitydefinitions");
-            setupActivityDefinitionPaths(fhirContext);
+            activityDefinitionPaths.addAll(getResourceCatalog().getPaths("ActivityDefinition"));
         }
         return activityDefinitionPaths;
     }
-    private static void setupActivityDefinitionPaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-        // BUG: resourceDirectories is being populated with all "per-convention" directories during validation. So,
-        // if you have resources in the /tests directory for example, they will be picked up from there, rather than
-        // from your resources directories.
-        for(String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true))
-            {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    //TODO: handle exception
-                }
-            }
-            RuntimeResourceDefinition activityDefinitionDefinition = (RuntimeResourceDefinition)ResourceUtils.getResourceDefinition(fhirContext, "ActivityDefinition");
-            String activityDefinitionClassName = activityDefinitionDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  activityDefinitionClassName.equals(entry.getValue().getClass().getName()))
-                .forEach(entry -> activityDefinitionPaths.add(entry.getKey()));
-        }
-    }
 
     public static void ensurePath(String path) throws IOException {
         //Creating a File object
@@ -738,32 +843,10 @@ public class IOUtils
     }
 
     private static HashSet<String> devicePaths = new HashSet<String>();
-    public static HashSet<String> getDevicePaths(FhirContext fhirContext) {
+    public static synchronized HashSet<String> getDevicePaths(FhirContext fhirContext) {
         if (devicePaths.isEmpty()) {
-            setupDevicePaths(fhirContext);
+            devicePaths.addAll(getResourceCatalog().getPaths("Device"));
         }
         return devicePaths;
     }
-    private static void setupDevicePaths(FhirContext fhirContext) {
-        HashMap<String, IBaseResource> resources = new HashMap<String, IBaseResource>();
-        for(String dir : resourceDirectories) {
-            for(String path : IOUtils.getFilePaths(dir, true))
-            {
-                try {
-                    resources.put(path, IOUtils.readResource(path, fhirContext, true));
-                } catch (Exception e) {
-                    if(path.toLowerCase().contains("device")) {
-                        System.out.println("Error reading in Device from path: " + path + "\n" + e);
-                    }
-                }
-            }
-            //TODO: move these to ResourceUtils
-            RuntimeResourceDefinition deviceDefinition = (RuntimeResourceDefinition)ResourceUtils.getResourceDefinition(fhirContext, "Device");
-            String deviceClassName = deviceDefinition.getImplementingClass().getName();
-            resources.entrySet().stream()
-                .filter(entry -> entry.getValue() != null)
-                .filter(entry ->  deviceClassName.equals(entry.getValue().getClass().getName()))
-                .forEach(entry -> devicePaths.add(entry.getKey()));
-        }
-    }
 }
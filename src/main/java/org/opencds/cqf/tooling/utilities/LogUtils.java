@@ -2,6 +2,7 @@
 package org.opencds.cqf.tooling.utilities;
 
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -10,14 +11,45 @@ import org.apache.commons.io.FilenameUtils;
 public class LogUtils 
 {    
     private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(LogUtils.class);
-    private static final Map<String, String> resourceWarnings = new LinkedHashMap<String, String>();  
-    
+    private static final Map<String, String> resourceWarnings = Collections.synchronizedMap(new LinkedHashMap<String, String>());  
+    // Warnings of the artifact processed by the current thread, while artifacts are processed concurrently
+    private static final ThreadLocal<Map<String, String>> isolatedWarnings = new ThreadLocal<>();
+
+    /**
+     * Keeps the warnings put on the current thread apart from those of other threads until endIsolatedWarnings,
+     * so that warn reports only the warnings of the artifact processed on this thread.
+     */
+    public static void beginIsolatedWarnings() {
+        isolatedWarnings.set(Collections.synchronizedMap(new LinkedHashMap<String, String>()));
+    }
+
+    /**
+     * Ends the isolation of the current thread; warnings that were not reported are passed on to the shared warnings.
+     */
+    public static void endIsolatedWarnings() {
+        Map<String, String> warnings = isolatedWarnings.get();
+        isolatedWarnings.remove();
+        if (warnings != null) {
+            resourceWarnings.putAll(warnings);
+        }
+    }
+
+    private static Map<String, String> getWarnings() {
+        Map<String, String> warnings = isolatedWarnings.get();
+        return warnings != null ? warnings : resourceWarnings;
+    }
+
     public static void putException(String id, Exception e) {
-        resourceWarnings.put(LocalDateTime.now().toString() + ": " + id,  e.getMessage() == null ? e.toString() : e.getMessage());
+        getWarnings().put(LocalDateTime.now().toString() + ": " + id,  e.getMessage() == null ? e.toString() : e.getMessage());
     }
 
     public static void putException(String id, String warning) {
-        resourceWarnings.put(LocalDateTime.now().toString() + ": " + id, warning);
+        getWarnings().put(LocalDateTime.now().toString() + ": " + id, warning);
+    }
+
+    // The number of warnings put and not yet reported by warn
+    static int getPendingWarningCount() {
+        return getWarnings().size();
     }
 
     public static void info(String message) {
@@ -25,17 +57,20 @@ public class LogUtils
     }
 
     public static void warn(String libraryName) {
-        if (resourceWarnings.isEmpty()) {
-            return;
-        }
         String exceptionMessage = "";
-        for (Map.Entry<String, String> resourceException : resourceWarnings.entrySet()) {
-            String resourceExceptionMessage = truncateMessage(resourceException.getValue()); 
-            String resource =  FilenameUtils.getBaseName(resourceException.getKey());           
-            exceptionMessage += "\r\n          Resource could not be processed: " + resource + "\r\n                    "  + resourceExceptionMessage;
+        Map<String, String> resourceWarnings = getWarnings();
+        synchronized (resourceWarnings) {
+            if (resourceWarnings.isEmpty()) {
+                return;
+            }
+            for (Map.Entry<String, String> resourceException : resourceWarnings.entrySet()) {
+                String resourceExceptionMessage = truncateMessage(resourceException.getValue()); 
+                String resource =  FilenameUtils.getBaseName(resourceException.getKey());           
+                exceptionMessage += "\r\n          Resource could not be processed: " + resource + "\r\n                    "  + resourceExceptionMessage;
+            }
+            resourceWarnings.clear(); 
         }
         ourLog.warn(libraryName +" could not be processed: "  + exceptionMessage);
-        resourceWarnings.clear(); 
     } 
 
     private static String truncateMessage(String message) {   
@@ -0,0 +1,150 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Writes output files only when their content changes, so that unchanged resources and bundles keep their modified
+ * time and are not processed again by the IG Publisher or file synchronization.
+ *
+ * The new content is written to a temporary file beside the output while its SHA-256 fingerprint is computed, and
+ * replaces the output only if the fingerprint differs from that of the existing file. The fingerprints of the files
+ * written or checked are kept with their size and modified time, so an unchanged output is read back at most once
+ * per process.
+ */
+public class OutputFingerprints {
+
+    public interface ContentWriter {
+        void write(OutputStream stream) throws IOException;
+    }
+
+    private static class Fingerprint {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        private Fingerprint(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    // Fingerprints by output path
+    private static final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+    private static final AtomicLong writtenCount = new AtomicLong();
+    private static final AtomicLong skippedCount = new AtomicLong();
+    // The absolute paths written since beginRecording, or null when writes are not recorded
+    private static volatile Set<String> recordedPaths = null;
+
+    /**
+     * Writes the content to the output path.
+     * @param skipUnchanged Whether an output that already has the content is left as it is
+     * @return true if the output was written, false if it already had the content
+     */
+    public static boolean write(String outputPath, ContentWriter content, boolean skipUnchanged) throws IOException {
+        File output = new File(outputPath);
+        if (!skipUnchanged) {
+            fingerprints.remove(output.getAbsolutePath());
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(output.toPath()))) {
+                content.write(stream);
+            }
+            record(output);
+            return true;
+        }
+
+        File directory = output.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(output.getName(), ".tmp", directory);
+        try {
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            try (OutputStream stream = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())), digest)) {
+                content.write(stream);
+            }
+            String hash = Hex.encodeHexString(digest.digest());
+
+            if (output.isFile() && output.length() == temp.length() && hash.equals(getHash(output))) {
+                skippedCount.incrementAndGet();
+                return false;
+            }
+
+            Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fingerprints.put(output.getAbsolutePath(), new Fingerprint(output.length(), output.lastModified(), hash));
+            record(output);
+            return true;
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static void record(File output) {
+        writtenCount.incrementAndGet();
+        Set<String> paths = recordedPaths;
+        if (paths != null) {
+            paths.add(output.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Starts recording the paths of the outputs written, so that a caller can tell its own writes from other changes
+     */
+    public static void beginRecording() {
+        recordedPaths = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Stops recording
+     * @return The absolute paths of the outputs written since beginRecording
+     */
+    public static Set<String> endRecording() {
+        Set<String> paths = recordedPaths;
+        recordedPaths = null;
+        return paths != null ? paths : Collections.emptySet();
+    }
+
+    private static String getHash(File file) throws IOException {
+        Fingerprint fingerprint = fingerprints.get(file.getAbsolutePath());
+        if (fingerprint != null && fingerprint.size == file.length() && fingerprint.lastModified == file.lastModified()) {
+            return fingerprint.hash;
+        }
+
+        String hash;
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            hash = DigestUtils.sha256Hex(stream);
+        }
+        fingerprints.put(file.getAbsolutePath(), new Fingerprint(file.length(), file.lastModified(), hash));
+        return hash;
+    }
+
+    public static long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public static long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public static void resetCounts() {
+        writtenCount.set(0);
+        skippedCount.set(0);
+    }
+
+    public static String getStatistics() {
+        return String.format("%d written, %d unchanged", writtenCount.get(), skippedCount.get());
+    }
+}
@@ -0,0 +1,62 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Shared source of configured FHIR parsers.
+ *
+ * HAPI parsers are not thread-safe, so one parser is kept per thread for each FHIR version and Encoding and
+ * reused for every parse and encode on that thread. A parser references its FhirContext, so a request with another
+ * context of the same version replaces the parser rather than keeping both. All parsers are pretty-printing. Callers must not change
+ * the settings of a parser they get from here; create one from the FhirContext instead if different options
+ * are needed.
+ */
+public class ParserProvider {
+
+    // The parsers of a thread for one FHIR version, and the context they were created from
+    private static class VersionParsers {
+        private final FhirContext fhirContext;
+        private final Map<IOUtils.Encoding, IParser> parsers = new EnumMap<>(IOUtils.Encoding.class);
+
+        VersionParsers(FhirContext fhirContext) {
+            this.fhirContext = fhirContext;
+        }
+    }
+
+    private static final ThreadLocal<Map<FhirVersionEnum, VersionParsers>> parsers =
+        ThreadLocal.withInitial(() -> new EnumMap<>(FhirVersionEnum.class));
+
+    //users should protect against Encoding.UNKNOWN or Enconding.CQL
+    public static IParser getParser(IOUtils.Encoding encoding, FhirContext fhirContext) {
+        Map<FhirVersionEnum, VersionParsers> threadParsers = parsers.get();
+        FhirVersionEnum version = fhirContext.getVersion().getVersion();
+        VersionParsers versionParsers = threadParsers.get(version);
+        if (versionParsers == null || versionParsers.fhirContext != fhirContext) {
+            versionParsers = new VersionParsers(fhirContext);
+            threadParsers.put(version, versionParsers);
+        }
+
+        IParser parser = versionParsers.parsers.get(encoding);
+        if (parser == null) {
+            parser = newParser(encoding, fhirContext);
+            versionParsers.parsers.put(encoding, parser);
+        }
+        return parser;
+    }
+
+    private static IParser newParser(IOUtils.Encoding encoding, FhirContext fhirContext) {
+        switch (encoding) {
+            case XML:
+                return fhirContext.newXmlParser().setPrettyPrint(true);
+            case JSON:
+                return fhirContext.newJsonParser().setPrettyPrint(true);
+            default:
+                throw new RuntimeException("Unknown encoding type: " + encoding.toString());
+        }
+    }
+}
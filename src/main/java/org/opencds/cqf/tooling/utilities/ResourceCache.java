@@ -0,0 +1,109 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+/**
+ * Thread-safe cache of parsed resources, bounded by the total size of the files they were read from.
+ *
+ * Entries are keyed by path, last-modified time and size, so a file that is edited during a session
+ * is re-read on the next request rather than served from the cache.
+ */
+public class ResourceCache {
+
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 256L * 1024 * 1024;
+
+    private final long maximumWeight;
+    private final Cache<Key, IBaseResource> cache;
+
+    public ResourceCache() {
+        this(DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * @param maximumWeight The maximum total size, in bytes, of the files whose resources are held
+     */
+    public ResourceCache(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(maximumWeight)
+            .weigher((Key key, IBaseResource resource) -> (int)Math.min(Integer.MAX_VALUE, Math.max(1, key.size)))
+            .recordStats()
+            .build();
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Returns the cached resource for the current state of the file, parsing it with the given function on a miss.
+     * @param file The file to read
+     * @param fhirVersion The FHIR version the resource is parsed as
+     * @param parse Parses the file; may return null, in which case nothing is cached
+     */
+    public IBaseResource get(File file, FhirVersionEnum fhirVersion, Function<File, IBaseResource> parse) {
+        Key key = new Key(file.getPath(), fhirVersion, file.lastModified(), file.length());
+        return cache.get(key, k -> parse.apply(file));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return String.format("%d entries (maximum weight %d bytes), %d hits, %d misses, %d evictions, hit rate %.2f",
+            cache.estimatedSize(), maximumWeight, stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate());
+    }
+
+    private static final class Key {
+        private final String path;
+        private final FhirVersionEnum fhirVersion;
+        private final long lastModified;
+        private final long size;
+
+        private Key(String path, FhirVersionEnum fhirVersion, long lastModified, long size) {
+            this.path = path;
+            this.fhirVersion = fhirVersion;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return lastModified == other.lastModified && size == other.size
+                && fhirVersion == other.fhirVersion && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, fhirVersion, lastModified, size);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the files under a set of resource directories, keyed by path.
+ *
+ * Each directory is walked once, and each FHIR resource file found is classified by its
+ * resourceType, id, url and version, read with {@link ResourceHeaderReader} rather than a full parse. The headers do
+ * not depend on the FHIR version. Type-specific path lookups (Library, Measure, ValueSet, etc.) are then answered
+ * from the index rather than by re-walking and re-reading the directories.
+ */
+public class ResourceCatalog {
+
+    private final List<String> indexedDirectories = new ArrayList<String>();
+    private final LinkedHashSet<String> filePaths = new LinkedHashSet<String>();
+    private final Map<String, ResourceHeader> headers = new LinkedHashMap<String, ResourceHeader>();
+
+    /**
+     * Walks any of the given directories that have not already been indexed.
+     * @param directories The resource directories to index
+     */
+    public synchronized void index(Collection<String> directories) {
+        for (String dir : directories) {
+            if (indexedDirectories.contains(dir)) {
+                continue;
+            }
+
+            indexedDirectories.add(dir);
+            for (String path : IOUtils.getFilePaths(dir, true)) {
+                if (!filePaths.add(path)) {
+                    continue;
+                }
+
+                ResourceHeader header = classify(path);
+                if (header != null) {
+                    headers.put(path, header);
+                }
+            }
+        }
+    }
+
+    private ResourceHeader classify(String path) {
+        try {
+            return ResourceHeaderReader.read(path);
+        } catch (Exception e) {
+            LogUtils.info("Error reading in resource from path: " + path + ": " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @return All file paths found under the indexed directories, including non-resource files such as CQL
+     */
+    public synchronized List<String> getFilePaths() {
+        return new ArrayList<String>(filePaths);
+    }
+
+    /**
+     * @param resourceType The FHIR resource type name (e.g. "Library")
+     * @return The paths of all indexed files containing a resource of the given type
+     */
+    public synchronized HashSet<String> getPaths(String resourceType) {
+        HashSet<String> paths = new HashSet<String>();
+        for (Map.Entry<String, ResourceHeader> entry : headers.entrySet()) {
+            if (resourceType.equals(entry.getValue().getResourceType())) {
+                paths.add(entry.getKey());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @param path The path of an indexed file
+     * @return The header of the resource in the file, or null if the file was not indexed or is not a resource
+     */
+    public synchronized ResourceHeader getHeader(String path) {
+        return headers.get(path);
+    }
+}
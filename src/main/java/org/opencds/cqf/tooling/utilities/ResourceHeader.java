@@ -0,0 +1,40 @@
+package org.opencds.cqf.tooling.utilities;
+
+/**
+ * The identifying elements of a FHIR resource file (resourceType, id, url and version), as
+ * recorded by the {@link ResourceCatalog}.
+ */
+public class ResourceHeader {
+    private String resourceType;
+    private String id;
+    private String url;
+    private String version;
+
+    public ResourceHeader(String resourceType, String id, String url, String version) {
+        this.resourceType = resourceType;
+        this.id = id;
+        this.url = url;
+        this.version = version;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return resourceType + "/" + id + (url != null ? " (" + url + (version != null ? "|" + version : "") + ")" : "");
+    }
+}
@@ -0,0 +1,159 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the resourceType, id, url and version of a FHIR resource file without parsing the whole resource.
+ *
+ * Only top-level elements are inspected; nested content (text, contained, expansion, etc.) is skipped
+ * without being materialized, and reading stops as soon as the header elements have been found.
+ */
+public class ResourceHeaderReader {
+
+    private static final String FHIR_NAMESPACE = "http://hl7.org/fhir";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * @param path Path to a .json or .xml file
+     * @return The header of the resource in the file, or null if the file is not a FHIR resource
+     * @throws IOException if the file can not be read or is not well-formed
+     */
+    public static ResourceHeader read(String path) throws IOException {
+        switch (IOUtils.getEncoding(path)) {
+            case JSON:
+                try (InputStream stream = new BufferedInputStream(new FileInputStream(new File(path)))) {
+                    return readJson(stream);
+                }
+            case XML:
+                try (InputStream stream = new BufferedInputStream(new FileInputStream(new File(path)))) {
+                    return readXml(stream);
+                }
+            default:
+                return null;
+        }
+    }
+
+    public static ResourceHeader readJson(InputStream stream) throws IOException {
+        String resourceType = null;
+        String id = null;
+        String url = null;
+        String version = null;
+
+        try (JsonParser parser = jsonFactory.createParser(stream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                // NOTE: JSON property order is not mandated, but resources are written in element order, where
+                // id, url and version precede status. Stopping there avoids tokenizing large bodies such as a
+                // ValueSet expansion when a resource has no version.
+                if (name.equals("status") && resourceType != null) {
+                    break;
+                }
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_STRING) {
+                    switch (name) {
+                        case "resourceType": resourceType = parser.getText(); break;
+                        case "id": id = parser.getText(); break;
+                        case "url": url = parser.getText(); break;
+                        case "version": version = parser.getText(); break;
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+
+                if (resourceType != null && id != null && url != null && version != null) {
+                    break;
+                }
+            }
+        }
+
+        return resourceType == null ? null : new ResourceHeader(resourceType, id, url, version);
+    }
+
+    public static ResourceHeader readXml(InputStream stream) throws IOException {
+        String resourceType = null;
+        String id = null;
+        String url = null;
+        String version = null;
+
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(stream);
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // Skip the prolog, comments and processing instructions
+            }
+
+            if (!reader.isStartElement() || !FHIR_NAMESPACE.equals(reader.getNamespaceURI())) {
+                return null;
+            }
+            resourceType = reader.getLocalName();
+
+            int depth = 1;
+            while (reader.hasNext() && depth > 0) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2) {
+                        String name = reader.getLocalName();
+                        // NOTE: FHIR XML element order is fixed, and id, url and version always precede status
+                        if (name.equals("status")) {
+                            break;
+                        }
+                        switch (name) {
+                            case "id": id = reader.getAttributeValue(null, "value"); break;
+                            case "url": url = reader.getAttributeValue(null, "value"); break;
+                            case "version": version = reader.getAttributeValue(null, "value"); break;
+                        }
+                        if (id != null && url != null && version != null) {
+                            break;
+                        }
+                    }
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing to do, the underlying stream is closed by the caller
+                }
+            }
+        }
+
+        return new ResourceHeader(resourceType, id, url, version);
+    }
+}
@@ -1,16 +1,15 @@
 package org.opencds.cqf.tooling.utilities;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FilenameUtils;
-import org.cqframework.cql.cql2elm.CqlTranslator;
-import org.cqframework.cql.cql2elm.LibraryManager;
-import org.cqframework.cql.cql2elm.ModelManager;
 import org.hl7.elm.r1.IncludeDef;
 import org.hl7.elm.r1.ValueSetDef;
 import org.hl7.fhir.instance.model.api.IBase;
@@ -20,7 +19,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.ICompositeType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.hl7.fhir.r4.model.CanonicalType;
-import org.opencds.cqf.tooling.library.GenericLibrarySourceProvider;
+import org.opencds.cqf.tooling.library.CompiledLibraryRegistry;
 import org.opencds.cqf.tooling.processor.ValueSetsProcessor;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
@@ -66,6 +65,19 @@ public class ResourceUtils
       return name.replaceAll("_", "-") + (versioned ? "-" + version.replaceAll("_", ".") : "");
     }
 
+    /**
+     * @return A deep copy of the resource, which can be changed without affecting the cached instance it was read as
+     */
+    public static IBaseResource copy(IBaseResource resource) {
+      if (resource instanceof org.hl7.fhir.dstu3.model.Resource) {
+        return ((org.hl7.fhir.dstu3.model.Resource)resource).copy();
+      }
+      if (resource instanceof org.hl7.fhir.r4.model.Resource) {
+        return ((org.hl7.fhir.r4.model.Resource)resource).copy();
+      }
+      throw new IllegalArgumentException("Unsupported resource type: " + resource.getClass().getName());
+    }
+
     public static void setIgId(String baseId, IBaseResource resource, Boolean includeVersion)
     {
       String version = includeVersion ? resource.getMeta().getVersionId() : "";
@@ -197,15 +209,42 @@ public class ResourceUtils
       return dependencyLibraries;
     }
     
+    // ValueSets of each CQL library by FHIR version, dependency options and library path
+    private static final Map<String, Map<String, IBaseResource>> valueSetDependencies = new ConcurrentHashMap<String, Map<String, IBaseResource>>();
+
+    /**
+     * Returns the ValueSets referenced by the CQL library, and by the libraries it includes if includeDependencies is
+     * set, by url. The result for each library is kept until clearValueSetDependencies is called, and is shared by
+     * every artifact bundling that library. Missing ValueSets are reported by an exception each time.
+     */
     public static Map<String, IBaseResource> getDepValueSetResources(String cqlContentPath, String igPath, FhirContext fhirContext, boolean includeDependencies, Boolean includeVersion) throws Exception {
+      String key = fhirContext.getVersion().getVersion() + "|" + includeDependencies + "|" + includeVersion + "|" + cqlContentPath;
+      Map<String, IBaseResource> valueSetResources = valueSetDependencies.get(key);
+      if (valueSetResources == null) {
+        valueSetResources = Collections.unmodifiableMap(resolveDepValueSetResources(cqlContentPath, igPath, fhirContext, includeDependencies, includeVersion));
+        Map<String, IBaseResource> existing = valueSetDependencies.putIfAbsent(key, valueSetResources);
+        if (existing != null) {
+          valueSetResources = existing;
+        }
+      }
+      return valueSetResources;
+    }
+
+    public static void clearValueSetDependencies() {
+      valueSetDependencies.clear();
+    }
+
+    private static Map<String, IBaseResource> resolveDepValueSetResources(String cqlContentPath, String igPath, FhirContext fhirContext, boolean includeDependencies, Boolean includeVersion) throws Exception {
       Map<String, IBaseResource> valueSetResources = new HashMap<String, IBaseResource>();
       List<String> valueSetDefIDs = getDepELMValueSetDefIDs(cqlContentPath);
       HashSet<String> dependencies = new HashSet<>();
-        
+      Map<String, IBaseResource> cachedValueSets = ValueSetsProcessor.getCachedValueSets(fhirContext);
+
       for (String valueSetUrl : valueSetDefIDs) {
-          ValueSetsProcessor.getCachedValueSets(fhirContext).entrySet().stream()
-          .filter(entry -> entry.getKey().equals(valueSetUrl))
-          .forEach(entry -> valueSetResources.putIfAbsent(entry.getKey(), entry.getValue()));
+          IBaseResource valueSet = cachedValueSets.get(valueSetUrl);
+          if (valueSet != null) {
+            valueSetResources.putIfAbsent(valueSetUrl, valueSet);
+          }
       }
       dependencies.addAll(valueSetDefIDs);
 
@@ -287,23 +326,9 @@ public class ResourceUtils
       return valueSetDefs;
     }
 
-    private static Map<String, org.hl7.elm.r1.Library> cachedElm = new HashMap<String, org.hl7.elm.r1.Library>();
     public static org.hl7.elm.r1.Library getElmFromCql(String cqlContentPath) {
-      org.hl7.elm.r1.Library elm = cachedElm.get(cqlContentPath);
-      if (elm != null) {
-        return elm;
-      }
-      String cqlDirPath = IOUtils.getParentDirectoryPath(cqlContentPath);
-      ModelManager modelManager = new ModelManager();
-      GenericLibrarySourceProvider sourceProvider = new GenericLibrarySourceProvider(cqlDirPath);
-      LibraryManager libraryManager = new LibraryManager(modelManager);
-      libraryManager.getLibrarySourceLoader().registerProvider(sourceProvider);
-
-      CqlTranslator translator = IOUtils.translate(cqlContentPath, modelManager, libraryManager);      
-      elm = translator.toELM(); 
-      cachedElm.put(cqlContentPath, elm);
-      return elm; 
-    }  
+      return CompiledLibraryRegistry.getElm(cqlContentPath);
+    }
 
     public static Boolean safeAddResource(String path, Map<String, IBaseResource> resources, FhirContext fhirContext) {
       Boolean added = true;
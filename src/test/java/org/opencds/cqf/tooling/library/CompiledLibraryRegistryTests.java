@@ -0,0 +1,87 @@
+package org.opencds.cqf.tooling.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.Literal;
+import org.junit.Test;
+
+public class CompiledLibraryRegistryTests {
+
+    @Test
+    public void TestIncludedLibraryIsNotTranslatedAgain() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        String sharedPath = folder.resolve("Shared.cql").toAbsolutePath().toString();
+        String commonPath = folder.resolve("Common.cql").toAbsolutePath().toString();
+
+        CompiledLibraryRegistry.clear();
+        long translations = CompiledLibraryRegistry.getTranslationCount();
+        Library shared = CompiledLibraryRegistry.getElm(sharedPath);
+        Library common = CompiledLibraryRegistry.getElm(commonPath);
+
+        assertEquals(translations + 1, CompiledLibraryRegistry.getTranslationCount());
+        assertEquals("Shared", shared.getIdentifier().getId());
+        assertEquals("Common", common.getIdentifier().getId());
+        assertSame(shared, CompiledLibraryRegistry.getElm(sharedPath));
+        assertEquals(2, CompiledLibraryRegistry.size());
+        CompiledLibraryRegistry.clear();
+    }
+
+    @Test
+    public void TestLibrariesAreRegisteredByDirectory() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        Path other = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        write(other, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 2\n");
+
+        CompiledLibraryRegistry.clear();
+        long translations = CompiledLibraryRegistry.getTranslationCount();
+        CompiledLibraryRegistry.getElm(folder.resolve("Shared.cql").toAbsolutePath().toString());
+        // The library of the same name and version in another directory is not the one Shared included
+        Library otherCommon = CompiledLibraryRegistry.getElm(other.resolve("Common.cql").toAbsolutePath().toString());
+        Library common = CompiledLibraryRegistry.getElm(folder.resolve("Common.cql").toAbsolutePath().toString());
+
+        assertEquals(translations + 2, CompiledLibraryRegistry.getTranslationCount());
+        assertEquals(3, CompiledLibraryRegistry.size());
+        assertEquals("1", getValue(common, "One"));
+        assertEquals("2", getValue(otherCommon, "One"));
+        CompiledLibraryRegistry.clear();
+    }
+
+    @Test
+    public void TestUnversionedLibraryIsNotMatchedToAVersion() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        write(folder, "Draft.cql", "library Common\n\ndefine \"One\": 3\n");
+
+        CompiledLibraryRegistry.clear();
+        CompiledLibraryRegistry.getElm(folder.resolve("Shared.cql").toAbsolutePath().toString());
+        Library draft = CompiledLibraryRegistry.getElm(folder.resolve("Draft.cql").toAbsolutePath().toString());
+        assertEquals("3", getValue(draft, "One"));
+        CompiledLibraryRegistry.clear();
+    }
+
+    private static String getValue(Library library, String name) {
+        for (ExpressionDef def : library.getStatements().getDef()) {
+            if (name.equals(def.getName())) {
+                return ((Literal)def.getExpression()).getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void write(Path folder, String name, String cql) throws IOException {
+        Files.write(folder.resolve(name), cql.getBytes(StandardCharsets.UTF_8));
+    }
+}
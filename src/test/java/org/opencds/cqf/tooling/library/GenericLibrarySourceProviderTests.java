@@ -0,0 +1,33 @@
+package org.opencds.cqf.tooling.library;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.junit.Test;
+
+public class GenericLibrarySourceProviderTests {
+
+    @Test
+    public void TestRepeatedRequestsReturnTheWholeSource() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        String common = "// Shared definitions\nlibrary Common version '1.0.0'\n\ndefine \"One\": 1\n";
+        Files.write(folder.resolve("CommonLogic.cql"), common.getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.resolve("Other.cql"), "library Other version '2.0.0'\n".getBytes(StandardCharsets.UTF_8));
+
+        GenericLibrarySourceProvider provider = new GenericLibrarySourceProvider(folder.toString());
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("Common").withVersion("1.0.0");
+        assertEquals(common, read(provider.getLibrarySource(identifier)));
+        assertEquals(common, read(provider.getLibrarySource(identifier)));
+        assertEquals(common, read(provider.getLibrarySource(new VersionedIdentifier().withId("Common"))));
+    }
+
+    private static String read(InputStream is) throws IOException {
+        return new String(org.apache.commons.io.IOUtils.toByteArray(is), StandardCharsets.UTF_8);
+    }
+}
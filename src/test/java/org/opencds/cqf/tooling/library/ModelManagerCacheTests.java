@@ -0,0 +1,31 @@
+package org.opencds.cqf.tooling.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+public class ModelManagerCacheTests {
+
+    @Test
+    public void TestModelManagerIsSharedPerFhirModelVersion() {
+        ModelManager r4 = ModelManagerCache.getModelManager(FhirVersionEnum.R4);
+        assertSame(r4, ModelManagerCache.getModelManager("4.0.1"));
+        assertEquals("4.0.1", r4.resolveModel("FHIR").getModelInfo().getVersion());
+
+        CqlSourceHeader header = CqlSourceHeader.parse(new File("Common.cql"),
+            "library Common version '1.0.0'\n\nusing FHIR version '4.0.1'\n\ninclude FHIRHelpers version '4.0.1'\n");
+        assertSame(r4, ModelManagerCache.getModelManager(Arrays.asList(header)));
+
+        ModelManager stu3 = ModelManagerCache.getModelManager(FhirVersionEnum.DSTU3);
+        assertNotSame(r4, stu3);
+        assertEquals("3.0.0", stu3.resolveModel("FHIR").getModelInfo().getVersion());
+    }
+}
@@ -0,0 +1,55 @@
+package org.opencds.cqf.tooling.npm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.utilities.cache.NpmPackage;
+import org.junit.Test;
+
+public class NpmLibrarySourceProviderTests implements IWorkerContext.ILoggingService {
+
+    @Test
+    public void TestLibrarySourceByCanonicalAndVersion() throws IOException {
+        NpmLibrarySourceProvider sp = new NpmLibrarySourceProvider(Collections.singletonList(load("library-package")), new LibraryLoader("4.0.1"), this);
+        VersionedIdentifier common = new VersionedIdentifier().withSystem("http://example.org/fhir").withId("Common");
+        assertEquals("library Common version '1.0.0'\n", read(sp.getLibrarySource(common.withVersion("1.0.0"))));
+        assertEquals("library Common version '1.0.0'\n", read(sp.getLibrarySource(common.withVersion("1.0.0"))));
+        // Without a version, the first library with the url is used, as NpmPackage.loadByCanonicalVersion does
+        assertEquals("library Common version '1.0.0'\n", read(sp.getLibrarySource(common.withVersion(null))));
+        assertEquals("library Common version '2.0.0'\n", read(sp.getLibrarySource(common.withVersion("2.0.0"))));
+        assertNull(sp.getLibrarySource(common.withVersion("3.0.0")));
+    }
+
+    @Test
+    public void TestLibraryWithoutCqlFallsThroughToLaterPackages() throws IOException {
+        NpmLibrarySourceProvider sp = new NpmLibrarySourceProvider(Arrays.asList(load("elm-package"), load("library-package")), new LibraryLoader("4.0.1"), this);
+        VersionedIdentifier common = new VersionedIdentifier().withSystem("http://example.org/fhir").withId("Common");
+        assertEquals("library Common version '1.0.0'\n", read(sp.getLibrarySource(common.withVersion("1.0.0"))));
+        assertEquals("library Common version '1.0.0'\n", read(sp.getLibrarySource(common.withVersion(null))));
+    }
+
+    private static NpmPackage load(String name) throws IOException {
+        return NpmPackage.fromFolder(new File(NpmLibrarySourceProviderTests.class.getResource(name).getFile()).getPath());
+    }
+
+    private static String read(InputStream is) throws IOException {
+        return new String(org.apache.commons.io.IOUtils.toByteArray(is), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void logMessage(String s) {
+    }
+
+    @Override
+    public void logDebugMessage(LogCategory logCategory, String s) {
+    }
+}
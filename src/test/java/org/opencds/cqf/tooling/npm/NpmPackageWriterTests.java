@@ -0,0 +1,105 @@
+package org.opencds.cqf.tooling.npm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.utilities.cache.NpmPackage;
+import org.junit.Test;
+import org.opencds.cqf.tooling.utilities.FhirContextCache;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+public class NpmPackageWriterTests {
+
+    @Test
+    public void TestPackageCanBeLoaded() throws IOException {
+        FhirContext fhirContext = FhirContextCache.getContext(FhirVersionEnum.R4);
+        File file = Files.createTempDirectory("package").resolve("package.tgz").toFile();
+
+        Library library = new Library();
+        library.setId("Example");
+        library.setUrl("http://example.org/fhir/Library/Example");
+        library.setVersion("1.0.0");
+        Patient patient = new Patient();
+        patient.setId("example-patient");
+
+        try (NpmPackageWriter writer = new NpmPackageWriter(file, "example.package", "1.0.0", "http://example.org/fhir", fhirContext)) {
+            assertTrue(writer.addResource(library));
+            assertTrue(writer.addResource(patient));
+            assertFalse(writer.addResource(library));
+            assertEquals(2, writer.getResourceCount());
+        }
+
+        NpmPackage npmPackage;
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            npmPackage = NpmPackage.fromPackage(stream);
+        }
+        assertEquals("example.package", npmPackage.name());
+        assertEquals("1.0.0", npmPackage.version());
+        assertTrue(npmPackage.hasFile("package", "Library-Example.json"));
+        assertTrue(npmPackage.hasFile("package", "Patient-example-patient.json"));
+        assertEquals(1, npmPackage.listResources("Library").size());
+        try (InputStream stream = npmPackage.loadByCanonicalVersion("http://example.org/fhir/Library/Example", "1.0.0")) {
+            assertNotNull(stream);
+        }
+    }
+
+    @Test
+    public void TestConflictingAndIdlessResourcesAreRejected() throws IOException {
+        FhirContext fhirContext = FhirContextCache.getContext(FhirVersionEnum.R4);
+        File file = Files.createTempDirectory("package").resolve("package.tgz").toFile();
+
+        Library library = new Library();
+        library.setId("Example");
+        library.setVersion("1.0.0");
+        Library conflicting = new Library();
+        conflicting.setId("Example");
+        conflicting.setVersion("2.0.0");
+        Patient patient = new Patient();
+        patient.setId("example-patient");
+
+        try (NpmPackageWriter writer = new NpmPackageWriter(file, "example.package", "1.0.0", null, fhirContext)) {
+            assertTrue(writer.addResource(library));
+            try {
+                // Nothing of an artifact with a conflicting resource is added
+                writer.addResources(Arrays.asList(patient, conflicting));
+                fail("A conflicting resource was added");
+            }
+            catch (IllegalArgumentException e) {
+                assertEquals(1, writer.getResourceCount());
+            }
+            try {
+                writer.addResource(new Patient());
+                fail("A resource without an id was added");
+            }
+            catch (IllegalArgumentException e) {
+                assertEquals(1, writer.getResourceCount());
+            }
+        }
+    }
+
+    @Test
+    public void TestAbortedPackageIsDeleted() throws IOException {
+        FhirContext fhirContext = FhirContextCache.getContext(FhirVersionEnum.R4);
+        File file = Files.createTempDirectory("package").resolve("package.tgz").toFile();
+
+        Patient patient = new Patient();
+        patient.setId("example-patient");
+        NpmPackageWriter writer = new NpmPackageWriter(file, "example.package", "1.0.0", null, fhirContext);
+        writer.addResource(patient);
+        writer.abort();
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,207 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opencds.cqf.tooling.utilities.ElmStore;
+
+public class CqlProcessorTests {
+
+    @Test
+    public void TestParallelTranslationMatchesSequential() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        write(folder, "First.cql", "library First version '1.0.0'\n\ninclude Shared version '1.0.0' called Shared\n\ndefine \"Three\": Shared.\"Two\" + 1\n");
+        write(folder, "Second.cql", "library Second version '1.0.0'\n\ninclude Shared version '1.0.0' called Shared\ninclude Common version '1.0.0' called Common\n\ndefine \"Four\": Shared.\"Two\" + Common.\"One\" + 1\n");
+
+        CqlProcessor sequential = translate(folder, 1);
+        CqlProcessor parallel = translate(folder, 4);
+
+        for (String name : new String[] { "Common", "Shared", "First", "Second" }) {
+            String path = folder.resolve(name + ".cql").toAbsolutePath().toString();
+            CqlProcessor.CqlSourceFileInformation expected = sequential.getFileInformation(path);
+            CqlProcessor.CqlSourceFileInformation actual = parallel.getFileInformation(path);
+            assertNotNull(actual);
+            assertTrue(actual.getErrors().toString(), actual.getErrors().isEmpty());
+            assertEquals(name, actual.getIdentifier().getId());
+            assertArrayEquals(expected.getElm(), actual.getElm());
+            assertEquals(expected.getRelatedArtifacts().size(), actual.getRelatedArtifacts().size());
+        }
+    }
+
+    @Test
+    public void TestElmCacheRestoresUnchangedLibraries() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        Path cache = Files.createTempDirectory("cache");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        write(folder, "Other.cql", "library Other version '1.0.0'\n\ndefine \"Three\": 3\n");
+        String sharedPath = folder.resolve("Shared.cql").toAbsolutePath().toString();
+
+        try {
+            CqlProcessor.setElmCacheDirectory(cache.toString());
+            CqlProcessor.CqlSourceFileInformation translated = translate(folder, 1).getFileInformation(sharedPath);
+            assertEquals(3, CqlProcessor.getElmCache().getMissCount());
+
+            CqlProcessor.setElmCacheDirectory(cache.toString());
+            CqlProcessor.CqlSourceFileInformation restored = translate(folder, 1).getFileInformation(sharedPath);
+            assertEquals(3, CqlProcessor.getElmCache().getHitCount());
+            assertEquals("Shared", restored.getIdentifier().getId());
+            assertArrayEquals(translated.getElm(), restored.getElm());
+            assertEquals(translated.getRelatedArtifacts().size(), restored.getRelatedArtifacts().size());
+            assertTrue(restored.getRelatedArtifacts().get(0).equalsDeep(translated.getRelatedArtifacts().get(0)));
+
+            // A change to an included library invalidates the libraries that include it
+            write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 2 - 1\n");
+            CqlProcessor.setElmCacheDirectory(cache.toString());
+            translate(folder, 1);
+            assertEquals(1, CqlProcessor.getElmCache().getHitCount());
+            assertEquals(2, CqlProcessor.getElmCache().getMissCount());
+        }
+        finally {
+            CqlProcessor.setElmCacheDirectory(null);
+        }
+    }
+
+    @Test
+    public void TestIncrementalExecuteTranslatesOnlyDependents() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        write(folder, "First.cql", "library First version '1.0.0'\n\ninclude Shared version '1.0.0' called Shared\n\ndefine \"Three\": Shared.\"Two\" + 1\n");
+        write(folder, "Other.cql", "library Other version '1.0.0'\n\ndefine \"Four\": 4\n");
+        String commonPath = folder.resolve("Common.cql").toAbsolutePath().toString();
+        String sharedPath = folder.resolve("Shared.cql").toAbsolutePath().toString();
+
+        CqlProcessor processor = translate(folder, 1);
+        assertEquals(new HashSet<>(Arrays.asList("Common", "Shared", "First")), processor.getInvalidatedLibraries(Collections.singletonList(commonPath)));
+
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 2\n");
+        Set<String> translated = processor.execute(Collections.singletonList(sharedPath));
+        assertEquals(new HashSet<>(Arrays.asList("Shared", "First")), translated);
+        assertEquals(2, processor.getAllFileInformation().size());
+        assertTrue(processor.getFileInformation(sharedPath).getErrors().isEmpty());
+    }
+
+    @Test
+    public void TestRenamedAndDeletedLibrariesInvalidateDependents() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        write(folder, "Renamed.cql", "library Renamed version '1.0.0'\n\ninclude Other version '1.0.0' called Other\n\ndefine \"Three\": Other.\"Four\"\n");
+        write(folder, "Other.cql", "library Other version '1.0.0'\n\ndefine \"Four\": 4\n");
+        String commonPath = folder.resolve("Common.cql").toAbsolutePath().toString();
+        String otherPath = folder.resolve("Other.cql").toAbsolutePath().toString();
+
+        // Renaming Other to Common affects the libraries including either name
+        CqlProcessor processor = translate(folder, 1);
+        write(folder, "Other.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        Set<String> invalidated = processor.getInvalidatedLibraries(Collections.singletonList(otherPath));
+        assertEquals(new HashSet<>(Arrays.asList("Other", "Renamed", "Common", "Shared")), invalidated);
+        assertEquals(invalidated, processor.getInvalidatedLibraries(Collections.singletonList(otherPath)));
+        write(folder, "Other.cql", "library Other version '1.0.0'\n\ndefine \"Four\": 4\n");
+
+        // Querying a deletion does not lose the name of the deleted library
+        Files.delete(folder.resolve("Common.cql"));
+        Set<String> expected = new HashSet<>(Arrays.asList("Common", "Shared"));
+        assertEquals(expected, processor.getInvalidatedLibraries(Collections.singletonList(commonPath)));
+        assertEquals(expected, processor.execute(Collections.singletonList(commonPath)));
+    }
+
+    @Test
+    public void TestElmStoreKeepsElmOnDisk() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        Path store = Files.createTempDirectory("elm");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        String commonPath = folder.resolve("Common.cql").toAbsolutePath().toString();
+
+        byte[] elm = translate(folder, 1).getFileInformation(commonPath).getElm();
+        try {
+            CqlProcessor.setElmStore(new ElmStore(store.toFile()));
+            CqlProcessor.CqlSourceFileInformation spilled = translate(folder, 1).getFileInformation(commonPath);
+            assertEquals(1, store.toFile().list().length);
+            assertArrayEquals(elm, spilled.getElm());
+        }
+        finally {
+            CqlProcessor.setElmStore(null);
+        }
+    }
+
+    @Test
+    public void TestElmEncodings() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Shared.cql", "library Shared version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\ndefine \"Two\": Common.\"One\" + 1\n");
+        String sharedPath = folder.resolve("Shared.cql").toAbsolutePath().toString();
+
+        CqlProcessor processor = new CqlProcessor(null, Collections.singletonList(folder.toString()), null,
+            new BaseProcessor(), null, null, null);
+        processor.setElmEncodings(CqlProcessor.ElmEncodings.JSON);
+        processor.execute();
+        CqlProcessor.CqlSourceFileInformation json = processor.getFileInformation(sharedPath);
+        assertNull(json.getElm());
+        assertNotNull(json.getJsonElm());
+
+        processor.setElmEncodings(CqlProcessor.ElmEncodings.NONE);
+        processor.execute();
+        CqlProcessor.CqlSourceFileInformation info = processor.getFileInformation(sharedPath);
+        assertNull(info.getElm());
+        assertNull(info.getJsonElm());
+        assertEquals("Shared", info.getIdentifier().getId());
+        assertEquals(1, info.getRelatedArtifacts().size());
+    }
+
+    @Test
+    public void TestTranslationMetrics() throws IOException {
+        Path folder = Files.createTempDirectory("cql");
+        write(folder, "Common.cql", "library Common version '1.0.0'\n\ndefine \"One\": 1\n");
+        write(folder, "Broken.cql", "library Broken version '1.0.0'\n\ndefine \"Two\": Missing.\"One\"\n");
+
+        CqlProcessor processor = translate(folder, 1);
+        List<TranslationMetrics.LibraryMetrics> libraries = processor.getTranslationMetrics().getLibraries();
+        assertEquals(2, libraries.size());
+        for (TranslationMetrics.LibraryMetrics metrics : libraries) {
+            assertEquals("Broken.cql".equals(metrics.getFile()), metrics.isFailed());
+            assertTrue(metrics.getTotalMillis() >= metrics.getTranslationMillis());
+        }
+        assertEquals(2, processor.getTranslationMetrics().getSummary(10).size());
+
+        processor.getTranslationMetrics().writeReport(folder.toString());
+        List<String> csv = Files.readAllLines(folder.resolve(TranslationMetrics.REPORT_NAME + ".csv"));
+        assertEquals(3, csv.size());
+        assertTrue(Files.exists(folder.resolve(TranslationMetrics.REPORT_NAME + ".json")));
+    }
+
+    private static void write(Path folder, String name, String cql) throws IOException {
+        Files.write(folder.resolve(name), cql.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static CqlProcessor translate(Path folder, int threads) {
+        int translatorThreads = CqlProcessor.translatorThreads;
+        CqlProcessor.translatorThreads = threads;
+        try {
+            CqlProcessor processor = new CqlProcessor(null, Collections.singletonList(folder.toString()), null,
+                new BaseProcessor(), null, null, null);
+            processor.execute();
+            return processor;
+        }
+        finally {
+            CqlProcessor.translatorThreads = translatorThreads;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.IParser;
+
+public class IGBundleProcessorTests {
+
+    @Test
+    public void TestConcurrentBundlingMatchesSequential() {
+        List<String> names = Arrays.asList("Gamma", "Alpha", "Failing", "Beta", "Alpha", "Delta");
+        Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+        Predicate<String> bundler = name -> {
+            counts.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+            if (name.equals("Failing")) {
+                throw new RuntimeException("Unable to bundle " + name);
+            }
+            return !name.equals("Delta");
+        };
+
+        int bundleThreads = IGBundleProcessor.bundleThreads;
+        try {
+            IGBundleProcessor.bundleThreads = 1;
+            List<String> sequential = IGBundleProcessor.bundleArtifacts(names, name -> {
+                try {
+                    return bundler.test(name);
+                }
+                catch (RuntimeException e) {
+                    return false;
+                }
+            });
+            assertEquals(Arrays.asList("Gamma", "Alpha", "Beta"), sequential);
+            assertEquals(1, counts.get("Alpha").get());
+
+            counts.clear();
+            IGBundleProcessor.bundleThreads = 4;
+            List<String> concurrent = IGBundleProcessor.bundleArtifacts(names, bundler);
+            assertEquals(sequential, concurrent);
+            // A repeated name is bundled once
+            assertEquals(1, counts.get("Alpha").get());
+        }
+        finally {
+            IGBundleProcessor.bundleThreads = bundleThreads;
+        }
+    }
+
+    @Test
+    public void TestBundleWorkersReadOnTheirOwnThread() throws IOException {
+        Path dir = Files.createTempDirectory("resources");
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            File file = dir.resolve("library-" + i + ".json").toFile();
+            Files.write(file.toPath(), ("{ \"resourceType\": \"Library\", \"id\": \"L" + i + "\" }").getBytes(StandardCharsets.UTF_8));
+            paths.add(file.getPath());
+        }
+
+        // Each thread that parses creates its own parser
+        Set<String> parsingThreads = ConcurrentHashMap.newKeySet();
+        FhirContext fhirContext = new FhirContext(FhirVersionEnum.R4) {
+            @Override
+            public IParser newJsonParser() {
+                parsingThreads.add(Thread.currentThread().getName());
+                return super.newJsonParser();
+            }
+        };
+        Set<String> bundlingThreads = ConcurrentHashMap.newKeySet();
+        Predicate<String> bundler = name -> {
+            bundlingThreads.add(Thread.currentThread().getName());
+            return IOUtils.readResources(paths, fhirContext).size() == paths.size();
+        };
+
+        int bundleThreads = IGBundleProcessor.bundleThreads;
+        int resourceReaderThreads = IOUtils.resourceReaderThreads;
+        try {
+            IGBundleProcessor.bundleThreads = 2;
+            IOUtils.resourceReaderThreads = 4;
+            List<String> names = Arrays.asList("Alpha", "Beta");
+            assertEquals(names, IGBundleProcessor.bundleArtifacts(names, bundler));
+            assertFalse(parsingThreads.isEmpty());
+            assertTrue(bundlingThreads.containsAll(parsingThreads));
+        }
+        finally {
+            IGBundleProcessor.bundleThreads = bundleThreads;
+            IOUtils.resourceReaderThreads = resourceReaderThreads;
+        }
+    }
+}
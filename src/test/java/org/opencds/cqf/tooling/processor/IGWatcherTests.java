@@ -0,0 +1,111 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencds.cqf.tooling.utilities.ArtifactIndex;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class IGWatcherTests {
+
+    private Path root;
+    private Path testsPath;
+    private Path libraryPath;
+    private Map<Path, String> measurePaths;
+
+    @Before
+    public void setUp() throws IOException {
+        root = IGWatcher.normalize(Files.createTempDirectory("ig").toString());
+        testsPath = Files.createDirectories(root.resolve("input/tests"));
+        libraryPath = root.resolve("input/resources/library/library-Example.json");
+        measurePaths = new HashMap<Path, String>();
+        measurePaths.put(root.resolve("input/resources/measure/measure-Example.json"), "measure-Example.json");
+    }
+
+    private IGWatcher.Changes classify(boolean overflow, Path... changes) {
+        return IGWatcher.classify(new HashSet<Path>(Arrays.asList(changes)), overflow, testsPath,
+                Collections.singleton(libraryPath), measurePaths);
+    }
+
+    @Test
+    public void TestCqlChangeRefreshesChangedLibraries() {
+        Path cqlPath = root.resolve("input/cql/Example.cql");
+        IGWatcher.Changes changes = classify(false, cqlPath);
+        assertTrue(changes.refreshLibraries);
+        assertFalse(changes.refreshAllLibraries);
+        assertEquals(Collections.singletonList(cqlPath.toString()), changes.cqlPaths);
+        assertTrue(changes.measurePaths.isEmpty());
+        assertTrue(changes.testArtifactPaths.isEmpty());
+    }
+
+    @Test
+    public void TestLibraryChangeRefreshesAllLibraries() {
+        IGWatcher.Changes changes = classify(false, libraryPath);
+        assertTrue(changes.refreshLibraries);
+        assertTrue(changes.refreshAllLibraries);
+        assertTrue(changes.cqlPaths.isEmpty());
+    }
+
+    @Test
+    public void TestMeasureChangeRefreshesOnlyThatMeasure() {
+        IGWatcher.Changes changes = classify(false, root.resolve("input/resources/measure/measure-Example.json"),
+                root.resolve("input/resources/measure/notes.txt"));
+        assertFalse(changes.refreshLibraries);
+        assertEquals(Collections.singleton("measure-Example.json"), changes.measurePaths);
+    }
+
+    @Test
+    public void TestTestCaseChangeRefreshesItsArtifact() throws IOException {
+        Path artifactPath = testsPath.resolve("measure/Example");
+        Path testCasePath = Files.createDirectories(artifactPath.resolve("patient-1"));
+        Path generatedBundle = Files.createFile(artifactPath.resolve("tests-Example-bundle.json"));
+
+        IGWatcher.Changes changes = classify(false, testCasePath.resolve("patient-1.json"));
+        assertEquals(Collections.singleton(artifactPath), changes.testArtifactPaths);
+        assertFalse(changes.refreshLibraries);
+
+        // A new test case directory is a change to the artifact
+        assertEquals(Collections.singleton(artifactPath), classify(false, testCasePath).testArtifactPaths);
+
+        // The bundles written directly in the artifact directory, and the directories above it, are ignored
+        Set<Path> ignored = classify(false, generatedBundle, artifactPath, testsPath.resolve("measure")).testArtifactPaths;
+        assertTrue(ignored.isEmpty());
+    }
+
+    @Test
+    public void TestLibraryChangeRefreshesInvalidatedMeasures() {
+        String measurePath = root.resolve("input/resources/measure/measure-Example.json").toString();
+        String planDefinitionPath = root.resolve("input/resources/plandefinition/plandefinition-Other.json").toString();
+        ArtifactIndex artifactIndex = new ArtifactIndex(FhirContext.forR4(), Collections.<String>emptyList(), Collections.<String>emptyList(),
+                Collections.singletonList(measurePath), Collections.singletonList(planDefinitionPath));
+        InvalidatedArtifacts invalidatedArtifacts = new InvalidatedArtifacts(new HashSet<String>(Arrays.asList("Example", "Other", "Common")), artifactIndex);
+
+        IGWatcher.Changes changes = classify(false, root.resolve("input/cql/Common.cql"));
+        IGWatcher.addInvalidated(changes, invalidatedArtifacts, artifactIndex, testsPath);
+        assertEquals(Collections.singleton(measurePath), changes.measurePaths);
+        assertEquals(new HashSet<Path>(Arrays.asList(testsPath.resolve("measure/Example"), testsPath.resolve("plandefinition/Other"))),
+                changes.testArtifactPaths);
+    }
+
+    @Test
+    public void TestOverflowRefreshesAllLibraries() {
+        IGWatcher.Changes changes = classify(true);
+        assertTrue(changes.refreshLibraries);
+        assertTrue(changes.refreshAllLibraries);
+        assertTrue(changes.cqlPaths.isEmpty());
+    }
+}
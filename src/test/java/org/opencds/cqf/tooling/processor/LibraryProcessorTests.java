@@ -0,0 +1,56 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Test;
+import org.opencds.cqf.tooling.utilities.FhirContextCache;
+import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+public class LibraryProcessorTests {
+
+    @Test
+    public void TestLibraryDependenciesAreTransitiveAndShared() throws IOException {
+        Path libraries = Files.createDirectories(Files.createTempDirectory("ig").resolve("resources").resolve("Library"));
+        writeLibrary(libraries, "Measure", "Shared");
+        writeLibrary(libraries, "Shared", "Common");
+        writeLibrary(libraries, "Common", null);
+        FhirContext fhirContext = FhirContextCache.getContext(FhirVersionEnum.R4);
+        String measureLibraryPath = libraries.resolve("Measure.json").toString();
+
+        LibraryProcessor.clearLibraryDependencies();
+        try {
+            Map<String, IBaseResource> dependencies = LibraryProcessor.getLibraryDependencies(measureLibraryPath, fhirContext, Encoding.JSON, false);
+            assertEquals(new HashSet<>(Arrays.asList("Shared", "Common")), dependencies.keySet());
+            assertSame(dependencies, LibraryProcessor.getLibraryDependencies(measureLibraryPath, fhirContext, Encoding.JSON, false));
+
+            Map<String, IBaseResource> resources = new HashMap<>();
+            assertTrue(LibraryProcessor.bundleLibraryDependencies(measureLibraryPath, fhirContext, resources, Encoding.JSON, false));
+            assertEquals(dependencies.keySet(), resources.keySet());
+        }
+        finally {
+            LibraryProcessor.clearLibraryDependencies();
+        }
+    }
+
+    private static void writeLibrary(Path directory, String name, String dependency) throws IOException {
+        String relatedArtifact = dependency == null ? ""
+            : ", \"relatedArtifact\": [ { \"type\": \"depends-on\", \"resource\": \"Library/" + dependency + "\" } ]";
+        String library = "{ \"resourceType\": \"Library\", \"id\": \"" + name + "\", \"status\": \"active\"" + relatedArtifact + " }";
+        Files.write(directory.resolve(name + ".json"), library.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,83 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Narrative;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class BundleWriterTests {
+
+    private static List<IBaseResource> getResources() {
+        List<IBaseResource> resources = new ArrayList<IBaseResource>();
+        Library library = new Library();
+        library.setId("library-Example");
+        library.setUrl("http://example.org/Library/Example?a=1&b=\"2\"");
+        library.setName("Example");
+        library.getText().setStatus(Narrative.NarrativeStatus.GENERATED).setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\"><p>An <b>example</b> library</p><pre>define \"One\":\n  1</pre></div>");
+        ValueSet contained = new ValueSet();
+        contained.setId("contained-vs");
+        contained.setUrl("http://example.org/ValueSet/contained");
+        library.addContained(contained);
+        resources.add(library);
+        ValueSet valueSet = new ValueSet();
+        valueSet.setId("ValueSet/example-vs");
+        valueSet.getCompose().addInclude().setSystem("http://loinc.org").addConcept().setCode("1234-5");
+        resources.add(valueSet);
+        Observation observation = new Observation();
+        observation.setId("example-observation");
+        observation.setValue(new Quantity().setValueElement(new org.hl7.fhir.r4.model.DecimalType("1.50")).setUnit("mg"));
+        resources.add(observation);
+        return resources;
+    }
+
+    private static void assertMatchesEncodedBundle(IOUtils.Encoding encoding) throws IOException {
+        FhirContext fhirContext = FhirContext.forR4();
+        String expected = IOUtils.encodeResourceAsString((Bundle)BundleUtils.bundleArtifacts("Example", getResources(), fhirContext), encoding, fhirContext);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        BundleWriter.writeTransactionBundle("Example", getResources(), stream, encoding, fhirContext);
+        assertEquals(expected, new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void TestJsonMatchesEncodedBundle() throws IOException {
+        assertMatchesEncodedBundle(IOUtils.Encoding.JSON);
+    }
+
+    @Test
+    public void TestXmlMatchesEncodedBundle() throws IOException {
+        assertMatchesEncodedBundle(IOUtils.Encoding.XML);
+    }
+
+    @Test
+    public void TestIdsAreAssignedToCopies() throws IOException {
+        Library shared = new Library();
+        shared.setName("Example");
+        List<IBaseResource> resources = new ArrayList<IBaseResource>();
+        resources.add(shared);
+
+        BundleWriter.writeTransactionBundle("Example-bundle", resources, new ByteArrayOutputStream(), IOUtils.Encoding.JSON, FhirContext.forR4());
+        // The resource, which may be shared through a cache, is not changed
+        assertNull(shared.getIdElement().getIdPart());
+        assertNotSame(shared, resources.get(0));
+        assertEquals("Example", ((Library)resources.get(0)).getName());
+        assertNotNull(resources.get(0).getIdElement().getIdPart());
+    }
+}
@@ -0,0 +1,83 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.hl7.fhir.r5.model.DataRequirement;
+import org.hl7.fhir.r5.model.Enumerations.FHIRAllTypes;
+import org.hl7.fhir.r5.model.Enumerations.OperationParameterUse;
+import org.hl7.fhir.r5.model.ParameterDefinition;
+import org.hl7.fhir.r5.model.RelatedArtifact;
+import org.junit.Test;
+
+public class ElmCacheTests {
+
+    private static final String KEY = "0123456789abcdef";
+
+    @Test
+    public void TestEntriesAreRestored() throws IOException {
+        ElmCache cache = new ElmCache(Files.createTempDirectory("cqf-cache").toString());
+        ElmCache.Entry entry = new ElmCache.Entry();
+        entry.id = "Example";
+        entry.version = "1.0.0";
+        entry.includes.addAll(Arrays.asList("Common", "FHIRHelpers"));
+        entry.elm = "<library/>".getBytes(StandardCharsets.UTF_8);
+        entry.relatedArtifacts.add(new RelatedArtifact().setType(RelatedArtifact.RelatedArtifactType.DEPENDSON).setResource("Library/Common|1.0.0"));
+        entry.dataRequirements.add(new DataRequirement().setType(FHIRAllTypes.CONDITION));
+        entry.parameters.add(new ParameterDefinition().setName("Measurement Period").setUse(OperationParameterUse.IN).setType(FHIRAllTypes.PERIOD));
+        ElmCache.Message message = new ElmCache.Message();
+        message.type = "INFORMATIONAL";
+        message.line = 3;
+        message.level = "WARNING";
+        message.message = "Could not resolve membership operator";
+        entry.messages.add(message);
+
+        assertNull(cache.get(KEY));
+        cache.put(KEY, entry);
+        ElmCache.Entry restored = cache.get(KEY);
+
+        assertEquals("Example", restored.id);
+        assertEquals("1.0.0", restored.version);
+        assertNull(restored.system);
+        assertEquals(entry.includes, restored.includes);
+        assertArrayEquals(entry.elm, restored.elm);
+        assertNull(restored.jsonElm);
+        assertTrue(restored.relatedArtifacts.get(0).equalsDeep(entry.relatedArtifacts.get(0)));
+        assertTrue(restored.dataRequirements.get(0).equalsDeep(entry.dataRequirements.get(0)));
+        assertTrue(restored.parameters.get(0).equalsDeep(entry.parameters.get(0)));
+        assertEquals(message.message, restored.messages.get(0).message);
+        assertEquals(3, restored.messages.get(0).line);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // The ELM is stored as the translator produced it
+        File entryDirectory = new File(new File(cache.getDirectory(), KEY.substring(0, 2)), KEY);
+        assertArrayEquals(entry.elm, Files.readAllBytes(new File(entryDirectory, "elm.xml").toPath()));
+    }
+
+    @Test
+    public void TestUnreadableEntriesAreDiscarded() throws IOException {
+        ElmCache cache = new ElmCache(Files.createTempDirectory("cqf-cache").toString());
+        ElmCache.Entry entry = new ElmCache.Entry();
+        entry.id = "Example";
+        cache.put(KEY, entry);
+
+        File entryDirectory = new File(new File(cache.getDirectory(), KEY.substring(0, 2)), KEY);
+        Files.write(new File(entryDirectory, "library.json").toPath(), "{ \"resourceType\": ".getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.get(KEY));
+        assertFalse(entryDirectory.exists());
+
+        cache.put(KEY, entry);
+        assertNotNull(cache.get(KEY));
+    }
+}
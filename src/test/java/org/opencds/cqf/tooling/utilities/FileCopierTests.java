@@ -0,0 +1,83 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class FileCopierTests {
+
+    @Test
+    public void TestSkipModeKeepsIdenticalFilesAndRemovesStaleOnes() throws IOException {
+        Path source = Files.createTempDirectory("source");
+        Path output = Files.createTempDirectory("output");
+        Path library = Files.write(source.resolve("library-Example.json"), "{ }".getBytes(StandardCharsets.UTF_8));
+        Path measure = Files.write(source.resolve("measure-Example.json"), "{ \"id\": 1 }".getBytes(StandardCharsets.UTF_8));
+
+        FileCopier.Mode mode = IOUtils.copyMode;
+        IOUtils.copyMode = FileCopier.Mode.SKIP_IDENTICAL;
+        try {
+            assertTrue(FileCopier.copy(library, output.resolve("library-Example.json"), IOUtils.copyMode));
+            assertFalse(FileCopier.copy(library, output.resolve("library-Example.json"), IOUtils.copyMode));
+
+            Files.write(output.resolve("stale.json"), "{ }".getBytes(StandardCharsets.UTF_8));
+            IOUtils.prepareDirectory(output.toString());
+            IOUtils.copyFile(library.toString(), output.resolve("library-Example.json").toString());
+            IOUtils.copyFile(measure.toString(), output.resolve("measure-Example.json").toString());
+            IOUtils.removeUnwrittenFiles(output.toString());
+        }
+        finally {
+            IOUtils.copyMode = mode;
+        }
+
+        assertEquals(2, output.toFile().list().length);
+        assertFalse(new File(output.toFile(), "stale.json").exists());
+        assertArrayEquals(Files.readAllBytes(measure), Files.readAllBytes(output.resolve("measure-Example.json")));
+    }
+
+    @Test
+    public void TestSkipModeComparesContentWhenTimesMatch() throws IOException {
+        Path source = Files.createTempDirectory("source");
+        Path output = Files.createTempDirectory("output");
+        Path library = Files.write(source.resolve("library-Example.json"), "{ \"id\": 1 }".getBytes(StandardCharsets.UTF_8));
+        Path copy = output.resolve("library-Example.json");
+        assertTrue(FileCopier.copy(library, copy, FileCopier.Mode.SKIP_IDENTICAL));
+
+        // An edit of the same size within the timestamp resolution
+        Files.write(library, "{ \"id\": 2 }".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(copy, Files.getLastModifiedTime(library));
+        assertTrue(FileCopier.copy(library, copy, FileCopier.Mode.SKIP_IDENTICAL));
+        assertArrayEquals(Files.readAllBytes(library), Files.readAllBytes(copy));
+    }
+
+    @Test
+    public void TestReleasedDirectoryCanBePreparedAgain() throws IOException {
+        Path output = Files.createTempDirectory("output");
+        Path files = Files.createDirectories(output.resolve("files"));
+
+        FileCopier.Mode mode = IOUtils.copyMode;
+        IOUtils.copyMode = FileCopier.Mode.SKIP_IDENTICAL;
+        try {
+            // Populating the directory failed
+            IOUtils.prepareDirectory(output.toString());
+            IOUtils.releaseDirectory(output.toString());
+
+            Files.write(files.resolve("stale.json"), "{ }".getBytes(StandardCharsets.UTF_8));
+            IOUtils.prepareDirectory(files.toString());
+            IOUtils.removeUnwrittenFiles(files.toString());
+        }
+        finally {
+            IOUtils.copyMode = mode;
+        }
+
+        assertFalse(Files.exists(files.resolve("stale.json")));
+    }
+}
@@ -0,0 +1,44 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class OutputFingerprintsTests {
+
+    @Test
+    public void TestUnchangedContentIsNotRewritten() throws IOException {
+        Path directory = Files.createTempDirectory("output");
+        String output = directory.resolve("library-Example.json").toString();
+        byte[] content = "{ \"id\": \"Example\" }".getBytes(StandardCharsets.UTF_8);
+        byte[] changed = "{ \"id\": \"Changed\" }".getBytes(StandardCharsets.UTF_8);
+
+        long written = OutputFingerprints.getWrittenCount();
+        long skipped = OutputFingerprints.getSkippedCount();
+        assertTrue(OutputFingerprints.write(output, stream -> stream.write(content), true));
+        File file = new File(output);
+        assertTrue(file.setLastModified(file.lastModified() - 60000));
+        long lastModified = file.lastModified();
+
+        assertFalse(OutputFingerprints.write(output, stream -> stream.write(content), true));
+        assertEquals(lastModified, file.lastModified());
+
+        assertTrue(OutputFingerprints.write(output, stream -> stream.write(changed), true));
+        assertArrayEquals(changed, Files.readAllBytes(file.toPath()));
+        assertTrue(OutputFingerprints.write(output, stream -> stream.write(changed), false));
+
+        assertEquals(written + 3, OutputFingerprints.getWrittenCount());
+        assertEquals(skipped + 1, OutputFingerprints.getSkippedCount());
+        // No temporary files are left behind
+        assertEquals(1, directory.toFile().list().length);
+    }
+}
@@ -0,0 +1,27 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+public class ParserProviderTests {
+
+    @Test
+    public void TestParsersAreReplacedForAnotherContextOfTheSameVersion() {
+        FhirContext first = FhirContext.forR4();
+        IParser parser = ParserProvider.getParser(IOUtils.Encoding.JSON, first);
+        assertSame(parser, ParserProvider.getParser(IOUtils.Encoding.JSON, first));
+        assertNotSame(parser, ParserProvider.getParser(IOUtils.Encoding.XML, first));
+
+        // Only the parsers of the latest context of a version are kept
+        FhirContext second = FhirContext.forR4();
+        IParser replaced = ParserProvider.getParser(IOUtils.Encoding.JSON, second);
+        assertNotSame(parser, replaced);
+        assertSame(replaced, ParserProvider.getParser(IOUtils.Encoding.JSON, second));
+        assertNotSame(parser, ParserProvider.getParser(IOUtils.Encoding.JSON, first));
+    }
+}
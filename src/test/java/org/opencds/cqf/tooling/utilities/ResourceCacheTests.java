@@ -0,0 +1,79 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Library;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class ResourceCacheTests {
+
+    @Test
+    public void TestRereadsModifiedFiles() throws IOException {
+        File file = File.createTempFile("library-Example", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "{ \"resourceType\": \"Library\", \"id\": \"Example\", \"version\": \"1.0.0\" }".getBytes(StandardCharsets.UTF_8));
+
+        IOUtils.setResourceCacheMaximumWeight(ResourceCache.DEFAULT_MAXIMUM_WEIGHT);
+        FhirContext fhirContext = FhirContext.forR4();
+        IBaseResource first = IOUtils.readResource(file.getPath(), fhirContext);
+        assertSame(first, IOUtils.readResource(file.getPath(), fhirContext));
+
+        Files.write(file.toPath(), "{ \"resourceType\": \"Library\", \"id\": \"Example\", \"version\": \"1.0.10\" }".getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(file.lastModified() + 2000);
+        IBaseResource second = IOUtils.readResource(file.getPath(), fhirContext);
+        assertNotSame(first, second);
+        assertEquals("1.0.10", ((Library)second).getVersion());
+
+        assertEquals(1, IOUtils.getResourceCache().stats().hitCount());
+        assertEquals(2, IOUtils.getResourceCache().stats().missCount());
+    }
+
+    @Test
+    public void TestParallelReadPreservesOrderAndReportsEachFailure() throws IOException {
+        File dir = Files.createTempDirectory("resources").toFile();
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            File file = new File(dir, "library-" + i + ".json");
+            String content = i == 7 || i == 13 ? "{ not json" : "{ \"resourceType\": \"Library\", \"id\": \"L" + i + "\" }";
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            paths.add(file.getPath());
+        }
+
+        for (int threads : new int[] { 1, 4 }) {
+            LogUtils.beginIsolatedWarnings();
+            try {
+                List<IBaseResource> resources = IOUtils.readResources(paths, FhirContext.forR4(), threads);
+                assertEquals(18, resources.size());
+                for (int i = 0, expected = 0; i < resources.size(); i++, expected++) {
+                    if (expected == 7 || expected == 13) {
+                        expected++;
+                    }
+                    assertEquals("L" + expected, resources.get(i).getIdElement().getIdPart());
+                }
+                assertEquals(2, LogUtils.getPendingWarningCount());
+            }
+            finally {
+                LogUtils.warn("readResources");
+                LogUtils.endIsolatedWarnings();
+            }
+        }
+    }
+
+    @Test
+    public void TestMissingRelativePathWithoutDirectory() {
+        assertNull(IOUtils.readResource("missing-library-Example.json", FhirContext.forR4(), true));
+    }
+}
@@ -0,0 +1,91 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class ResourceCatalogTests {
+
+    private static Path writeFile(Path dir, String name, String content) throws IOException {
+        Path path = dir.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    public void TestClassifiesByResourceType() throws IOException {
+        Path dir = Files.createTempDirectory("catalog");
+        Path library = writeFile(dir, "library-Example.json",
+            "{ \"resourceType\": \"Library\", \"id\": \"Example\", \"url\": \"http://example.org/Library/Example\", \"version\": \"1.0.0\" }");
+        Path measure = writeFile(dir, "measure-Example.xml",
+            "<Measure xmlns=\"http://hl7.org/fhir\"><id value=\"Example\"/><url value=\"http://example.org/Measure/Example\"/></Measure>");
+        Path cql = writeFile(dir, "Example.cql", "library Example version '1.0.0'");
+
+        ResourceCatalog catalog = new ResourceCatalog();
+        catalog.index(Collections.singletonList(dir.toString()));
+
+        assertEquals(Collections.singleton(library.toString()), catalog.getPaths("Library"));
+        assertEquals(Collections.singleton(measure.toString()), catalog.getPaths("Measure"));
+        assertTrue(catalog.getPaths("ValueSet").isEmpty());
+        assertTrue(catalog.getFilePaths().contains(cql.toString()));
+        assertNull(catalog.getHeader(cql.toString()));
+
+        ResourceHeader header = catalog.getHeader(library.toString());
+        assertEquals("Example", header.getId());
+        assertEquals("http://example.org/Library/Example", header.getUrl());
+        assertEquals("1.0.0", header.getVersion());
+
+        assertEquals("http://example.org/Measure/Example", catalog.getHeader(measure.toString()).getUrl());
+        assertNull(catalog.getHeader(measure.toString()).getVersion());
+    }
+
+    @Test
+    public void TestHeaderReaderSkipsNestedContent() throws IOException {
+        ResourceHeader header = ResourceHeaderReader.readJson(new ByteArrayInputStream((
+            "{ \"resourceType\": \"ValueSet\", \"text\": { \"id\": \"nested\" }, \"id\": \"Example\", " +
+            "\"url\": \"http://example.org/ValueSet/Example\", \"status\": \"active\", \"version\": \"after-status\", " +
+            "\"expansion\": { \"contains\": [ { \"code\": \"1\" } ] } }").getBytes(StandardCharsets.UTF_8)));
+        assertEquals("ValueSet", header.getResourceType());
+        assertEquals("Example", header.getId());
+        assertEquals("http://example.org/ValueSet/Example", header.getUrl());
+        assertNull(header.getVersion());
+
+        header = ResourceHeaderReader.readXml(new ByteArrayInputStream((
+            "<?xml version=\"1.0\"?><Library xmlns=\"http://hl7.org/fhir\"><id value=\"Example\"/>" +
+            "<meta><versionId value=\"2\"/></meta><version value=\"1.0.0\"/><status value=\"active\"/></Library>").getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Library", header.getResourceType());
+        assertEquals("Example", header.getId());
+        assertEquals("1.0.0", header.getVersion());
+
+        assertNull(ResourceHeaderReader.readXml(new ByteArrayInputStream("<project/>".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void TestArtifactIndexMatchesByName() {
+        ArtifactIndex index = new ArtifactIndex(FhirContext.forR4(),
+            Arrays.asList("/ig/input/cql/Example.cql", "/ig/input/cql/OtherExample.cql", "/ig/input/cql/Example_FHIR4.cql"),
+            Arrays.asList("/ig/input/resources/library/library-Example.json", "/ig/input/resources/library/library-Example.xml"),
+            Arrays.asList("/ig/input/resources/measure/measure-OtherExample.xml"),
+            Collections.<String>emptyList());
+
+        assertEquals("/ig/input/cql/Example.cql", index.getCqlPath("Example"));
+        assertEquals("/ig/input/cql/Example_FHIR4.cql", index.getCqlPath("Example-FHIR4"));
+        assertEquals("/ig/input/resources/library/library-Example.xml", index.getLibraryPath("Example", IOUtils.Encoding.XML));
+        assertEquals("/ig/input/resources/library/library-Example.json", index.getLibraryPath("Example", IOUtils.Encoding.JSON));
+        assertEquals("/ig/input/resources/measure/measure-OtherExample.xml", index.getMeasurePath("OtherExample", IOUtils.Encoding.JSON));
+        assertNull(index.getMeasurePath("Example", IOUtils.Encoding.JSON));
+        assertEquals(Collections.singleton("OtherExample"), index.getMeasureNames());
+    }
+}
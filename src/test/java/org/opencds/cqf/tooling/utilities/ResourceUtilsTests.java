@@ -0,0 +1,99 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencds.cqf.tooling.processor.ValueSetsProcessor;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class ResourceUtilsTests {
+
+    private static final String COMMON_VALUESET = "http://example.org/fhir/ValueSet/common";
+    private static final String MAIN_VALUESET = "http://example.org/fhir/ValueSet/main";
+
+    private final FhirContext fhirContext = FhirContext.forR4();
+    private ArrayList<String> resourceDirectories;
+    private Path ig;
+    private Path cql;
+
+    @Before
+    public void setUp() throws IOException {
+        ig = Files.createTempDirectory("ig");
+        cql = Files.createDirectories(ig.resolve("cql"));
+        Path vocabulary = Files.createDirectories(ig.resolve("vocabulary"));
+        write(cql, "Common.cql", "library Common version '1.0.0'\n\nvalueset \"Common\": '" + COMMON_VALUESET + "'\n");
+        write(cql, "Main.cql", "library Main version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\nvalueset \"Main\": '" + MAIN_VALUESET + "'\n");
+        write(vocabulary, "valueset-common.json", "{ \"resourceType\": \"ValueSet\", \"id\": \"common\", \"url\": \"" + COMMON_VALUESET + "\" }");
+        write(vocabulary, "valueset-main.json", "{ \"resourceType\": \"ValueSet\", \"id\": \"main\", \"url\": \"" + MAIN_VALUESET + "\" }");
+
+        resourceDirectories = IOUtils.resourceDirectories;
+        IOUtils.resourceDirectories = new ArrayList<String>(Arrays.asList(vocabulary.toString()));
+        IOUtils.clearCaches();
+        ValueSetsProcessor.clearCachedValueSets();
+    }
+
+    @After
+    public void tearDown() {
+        IOUtils.resourceDirectories = resourceDirectories;
+        IOUtils.clearCaches();
+        ValueSetsProcessor.clearCachedValueSets();
+    }
+
+    @Test
+    public void TestValueSetsIncludeThoseOfIncludedLibraries() throws Exception {
+        String mainPath = cql.resolve("Main.cql").toString();
+        Map<String, IBaseResource> valueSets = ResourceUtils.getDepValueSetResources(mainPath, ig.toString(), fhirContext, true, false);
+        assertEquals(new HashSet<>(Arrays.asList(COMMON_VALUESET, MAIN_VALUESET)), valueSets.keySet());
+        assertEquals(1, ResourceUtils.getDepValueSetResources(mainPath, ig.toString(), fhirContext, false, false).size());
+
+        // The closure is shared by every request for the library
+        assertSame(valueSets, ResourceUtils.getDepValueSetResources(mainPath, ig.toString(), fhirContext, true, false));
+    }
+
+    @Test
+    public void TestMissingValueSetsAreReportedEachTime() throws IOException {
+        write(cql, "Broken.cql", "library Broken version '1.0.0'\n\ninclude Common version '1.0.0' called Common\n\nvalueset \"Missing\": 'http://example.org/fhir/ValueSet/missing'\n");
+        String brokenPath = cql.resolve("Broken.cql").toString();
+        for (int i = 0; i < 2; i++) {
+            try {
+                ResourceUtils.getDepValueSetResources(brokenPath, ig.toString(), fhirContext, true, false);
+                fail("The missing ValueSet was not reported");
+            }
+            catch (Exception e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("http://example.org/fhir/ValueSet/missing MISSING"));
+            }
+        }
+    }
+
+    @Test
+    public void TestClearValueSetDependencies() throws Exception {
+        String mainPath = cql.resolve("Main.cql").toString();
+        Map<String, IBaseResource> valueSets = ResourceUtils.getDepValueSetResources(mainPath, ig.toString(), fhirContext, true, false);
+
+        ResourceUtils.clearValueSetDependencies();
+        Map<String, IBaseResource> resolved = ResourceUtils.getDepValueSetResources(mainPath, ig.toString(), fhirContext, true, false);
+        assertNotSame(valueSets, resolved);
+        assertEquals(valueSets.keySet(), resolved.keySet());
+    }
+
+    private static void write(Path folder, String name, String content) throws IOException {
+        Files.write(folder.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}